@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import org.onlab.packet.ARP;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building one ARP reply: the {@code Ethernet}/{@code ARP} object graph
+ * serialized per packet, as the processor used to, against
+ * {@link ArpFrames}. Run with {@code -prof gc} to compare allocation.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ArpFrameBenchmark {
+
+	private final MacAddress asker = MacAddress.valueOf("02:00:00:00:00:01");
+	private final MacAddress target = MacAddress.valueOf("02:00:00:00:00:02");
+	private final Ip4Address askerIp = Ip4Address.valueOf("10.0.0.1");
+	private final Ip4Address targetIp = Ip4Address.valueOf("10.0.0.2");
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		byte[] graph = objectGraph().array();
+		byte[] template = template().array();
+		if (!Arrays.equals(graph, template)) {
+			throw new IllegalStateException("template frame differs: " + Arrays.toString(template)
+					+ " vs " + Arrays.toString(graph));
+		}
+	}
+
+	@Benchmark
+	public ByteBuffer objectGraph() {
+		ARP arp = new ARP();
+		arp.setOpCode(ARP.OP_REPLY);
+		arp.setProtocolType(ARP.PROTO_TYPE_IP);
+		arp.setHardwareType(ARP.HW_TYPE_ETHERNET);
+		arp.setProtocolAddressLength((byte) Ip4Address.BYTE_LENGTH);
+		arp.setHardwareAddressLength((byte) Ethernet.DATALAYER_ADDRESS_LENGTH);
+		arp.setTargetHardwareAddress(asker.toBytes());
+		arp.setSenderHardwareAddress(target.toBytes());
+		arp.setTargetProtocolAddress(askerIp.toInt());
+		arp.setSenderProtocolAddress(targetIp.toInt());
+
+		Ethernet eth = new Ethernet();
+		eth.setDestinationMACAddress(asker);
+		eth.setSourceMACAddress(target);
+		eth.setEtherType(Ethernet.TYPE_ARP);
+		eth.setPayload(arp);
+		return ByteBuffer.wrap(eth.serialize());
+	}
+
+	@Benchmark
+	public ByteBuffer template() {
+		return ArpFrames.frame(ARP.OP_REPLY, askerIp.toInt(), targetIp.toInt(), asker.toLong(), target.toLong());
+	}
+}
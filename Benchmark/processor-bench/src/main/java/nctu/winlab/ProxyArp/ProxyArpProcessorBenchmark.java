@@ -0,0 +1,183 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import nctu.winlab.bench.BenchServices.BenchCoreService;
+import nctu.winlab.bench.BenchServices.BenchPacketContext;
+import nctu.winlab.bench.BenchServices.CountingPacketService;
+import nctu.winlab.bench.Stubs;
+
+import org.onlab.packet.ARP;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.edge.EdgePortService;
+import org.onosproject.net.host.HostService;
+import org.onosproject.net.intf.InterfaceService;
+import org.onosproject.net.packet.DefaultInboundPacket;
+import org.onosproject.net.packet.InboundPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.service.component.ComponentContext;
+
+import java.nio.ByteBuffer;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one ARP packet-in through the proxy ARP processor: requests for
+ * a known target (answered from the table), for an unknown one (flooded
+ * to every edge port, or with a hold time mostly held behind the pending
+ * probe) and replies relayed back to the asker.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProxyArpProcessorBenchmark {
+
+	private static final DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+	private static final MacAddress ASKER = MacAddress.valueOf("02:00:00:00:00:01");
+	private static final Ip4Address ASKER_IP = Ip4Address.valueOf("10.1.0.1");
+
+	@Param({ "4096" })
+	public int hosts;
+
+	@Param({ "16" })
+	public int edgePorts;
+
+	@Param({ "0", "1000" })
+	public int arpHoldTime;
+
+	private AppComponent component;
+	private InboundPacket[] requestHits;
+	private InboundPacket[] requestMisses;
+	private InboundPacket[] replies;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		List<ConnectPoint> edge = Lists.newArrayList();
+		for (int p = 1; p <= edgePorts; p++) {
+			edge.add(new ConnectPoint(DEVICE, PortNumber.portNumber(p)));
+		}
+
+		component = new AppComponent();
+		component.cfgService = new ComponentConfigAdapter();
+		component.coreService = new BenchCoreService();
+		component.packetService = new CountingPacketService();
+		component.eptService = Stubs.of(EdgePortService.class, ImmutableMap.of("getEdgePoints", args -> edge));
+		component.hostService = Stubs.of(HostService.class);
+		component.interfaceService = Stubs.of(InterfaceService.class);
+		component.activate(null);
+		Hashtable<String, Object> properties = new Hashtable<>();
+		properties.put(OsgiPropertyConstants.ARP_HOLD_TIME, String.valueOf(arpHoldTime));
+		component.modified(Stubs.of(ComponentContext.class, ImmutableMap.of("getProperties", args -> properties)));
+
+		ConnectPoint in = new ConnectPoint(DEVICE, PortNumber.portNumber(1));
+		ConnectPoint at = new ConnectPoint(DEVICE, PortNumber.portNumber(2));
+		long now = System.currentTimeMillis();
+		requestHits = new InboundPacket[hosts];
+		requestMisses = new InboundPacket[hosts];
+		replies = new InboundPacket[hosts];
+		for (int i = 0; i < hosts; i++) {
+			MacAddress known = MacAddress.valueOf(0x020000100000L + i);
+			Ip4Address knownIp = Ip4Address.valueOf(0x0a020000 + i);
+			Ip4Address unknownIp = Ip4Address.valueOf(0x0a030000 + i);
+			component.bindings.learn(knownIp, known, at, now);
+			requestHits[i] = packet(in, ARP.OP_REQUEST, ASKER, ASKER_IP, MacAddress.BROADCAST, knownIp);
+			requestMisses[i] = packet(in, ARP.OP_REQUEST, ASKER, ASKER_IP, MacAddress.BROADCAST, unknownIp);
+			replies[i] = packet(at, ARP.OP_REPLY, known, knownIp, ASKER, ASKER_IP);
+		}
+		component.bindings.learn(ASKER_IP, ASKER, in, now);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		component.deactivate();
+	}
+
+	private static InboundPacket packet(ConnectPoint in, short op, MacAddress src, Ip4Address srcIp,
+			MacAddress dst, Ip4Address dstIp) {
+		ARP arp = new ARP();
+		arp.setOpCode(op);
+		arp.setProtocolType(ARP.PROTO_TYPE_IP);
+		arp.setHardwareType(ARP.HW_TYPE_ETHERNET);
+		arp.setProtocolAddressLength((byte) Ip4Address.BYTE_LENGTH);
+		arp.setHardwareAddressLength((byte) Ethernet.DATALAYER_ADDRESS_LENGTH);
+		arp.setSenderHardwareAddress(src.toBytes());
+		arp.setSenderProtocolAddress(srcIp.toInt());
+		arp.setTargetHardwareAddress(op == ARP.OP_REQUEST ? MacAddress.ZERO.toBytes() : dst.toBytes());
+		arp.setTargetProtocolAddress(dstIp.toInt());
+
+		Ethernet eth = new Ethernet();
+		eth.setSourceMACAddress(src);
+		eth.setDestinationMACAddress(dst);
+		eth.setEtherType(Ethernet.TYPE_ARP);
+		eth.setPayload(arp);
+		return new DefaultInboundPacket(in, eth, ByteBuffer.wrap(eth.serialize()));
+	}
+
+	private InboundPacket pick(InboundPacket[] packets) {
+		int i = next++;
+		if (next == packets.length) {
+			next = 0;
+		}
+		return packets[i];
+	}
+
+	@Benchmark
+	public BenchPacketContext requestHit() {
+		BenchPacketContext pc = new BenchPacketContext(pick(requestHits));
+		component.arpProcessor.process(pc);
+		return pc;
+	}
+
+	@Benchmark
+	public BenchPacketContext requestMiss() {
+		BenchPacketContext pc = new BenchPacketContext(pick(requestMisses));
+		component.arpProcessor.process(pc);
+		return pc;
+	}
+
+	@Benchmark
+	public BenchPacketContext reply() {
+		BenchPacketContext pc = new BenchPacketContext(pick(replies));
+		component.arpProcessor.process(pc);
+		return pc;
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bench;
+
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreServiceAdapter;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.net.packet.DefaultPacketContext;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.OutboundPacket;
+import org.onosproject.net.packet.PacketServiceAdapter;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stand-ins for the services and packet contexts the processors talk to.
+ * They only count what the processors hand them.
+ */
+public final class BenchServices {
+
+	private BenchServices() {
+	}
+
+	/** Registers every application as id 1. */
+	public static class BenchCoreService extends CoreServiceAdapter {
+		@Override
+		public ApplicationId registerApplication(String name) {
+			return new DefaultApplicationId(1, name);
+		}
+	}
+
+	/** Counts emitted packet-outs. */
+	public static class CountingPacketService extends PacketServiceAdapter {
+		public final LongAdder emitted = new LongAdder();
+
+		@Override
+		public void emit(OutboundPacket packet) {
+			emitted.increment();
+		}
+	}
+
+	/** Counts flow rules handed over, one by one or in batches. */
+	public static class CountingFlowRuleService extends FlowRuleServiceAdapter {
+		public final LongAdder rules = new LongAdder();
+		public final LongAdder calls = new LongAdder();
+
+		@Override
+		public void applyFlowRules(FlowRule... flowRules) {
+			calls.increment();
+			rules.add(flowRules.length);
+		}
+
+		@Override
+		public void apply(FlowRuleOperations ops) {
+			calls.increment();
+			ops.stages().forEach(stage -> rules.add(stage.size()));
+		}
+
+		@Override
+		public Iterable<FlowEntry> getFlowEntriesById(ApplicationId id) {
+			return Collections.emptyList();
+		}
+	}
+
+	/** Packet-in context whose packet-out goes nowhere. */
+	public static class BenchPacketContext extends DefaultPacketContext {
+		public BenchPacketContext(InboundPacket inPacket) {
+			super(0L, inPacket, null, false);
+		}
+
+		@Override
+		public void send() {
+		}
+	}
+
+	public static ConnectPoint cp(String deviceAndPort) {
+		return ConnectPoint.deviceConnectPoint(deviceAndPort);
+	}
+}
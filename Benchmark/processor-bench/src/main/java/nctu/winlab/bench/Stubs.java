@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bench;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Do-nothing implementations of ONOS service interfaces for services the
+ * processors reference but the benchmarks do not exercise. Every method
+ * returns zero, false, null or an empty collection unless overridden by name.
+ */
+public final class Stubs {
+
+	private Stubs() {
+	}
+
+	public static <T> T of(Class<T> type) {
+		return of(type, ImmutableMap.of());
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <T> T of(Class<T> type, Map<String, Function<Object[], Object>> overrides) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+			if (method.getDeclaringClass() == Object.class) {
+				switch (method.getName()) {
+					case "equals":
+						return proxy == args[0];
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					default:
+						return type.getSimpleName() + " stub";
+				}
+			}
+			Function<Object[], Object> override = overrides.get(method.getName());
+			if (override != null) {
+				return override.apply(args);
+			}
+			return defaultFor(method.getReturnType());
+		});
+	}
+
+	private static Object defaultFor(Class<?> type) {
+		if (type == boolean.class) {
+			return false;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0L;
+		} else if (type == short.class) {
+			return (short) 0;
+		} else if (type == byte.class) {
+			return (byte) 0;
+		} else if (type == double.class) {
+			return 0d;
+		} else if (type == float.class) {
+			return 0f;
+		} else if (type == char.class) {
+			return (char) 0;
+		} else if (type == Set.class) {
+			return Collections.emptySet();
+		} else if (type == Map.class) {
+			return Collections.emptyMap();
+		} else if (type == List.class || type == Collection.class || type == Iterable.class) {
+			return Collections.emptyList();
+		} else if (type == Optional.class) {
+			return Optional.empty();
+		} else if (type == Stream.class) {
+			return Stream.empty();
+		}
+		return null;
+	}
+}
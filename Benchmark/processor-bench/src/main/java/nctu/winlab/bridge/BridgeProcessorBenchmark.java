@@ -0,0 +1,147 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import nctu.winlab.bench.BenchServices.BenchCoreService;
+import nctu.winlab.bench.BenchServices.BenchPacketContext;
+import nctu.winlab.bench.BenchServices.CountingFlowRuleService;
+import nctu.winlab.bench.BenchServices.CountingPacketService;
+import nctu.winlab.bench.Stubs;
+
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.MacAddress;
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.edge.EdgePortService;
+import org.onosproject.net.group.GroupService;
+import org.onosproject.net.packet.DefaultInboundPacket;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.topology.TopologyService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one packet-in through the learning bridge processor, for a known
+ * destination (hit), an unknown one (miss) and a broadcast.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BridgeProcessorBenchmark {
+
+	private static final DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+	private static final MacAddress SENDER = MacAddress.valueOf("02:00:00:00:00:01");
+
+	@Param({ "4096" })
+	public int hosts;
+
+	private AppComponent component;
+	private InboundPacket[] hits;
+	private InboundPacket[] misses;
+	private InboundPacket broadcast;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		component = new AppComponent();
+		component.cfgService = new ComponentConfigAdapter();
+		component.coreService = new BenchCoreService();
+		component.packetService = new CountingPacketService();
+		component.flowRuleService = new CountingFlowRuleService();
+		component.topologyService = Stubs.of(TopologyService.class);
+		component.eptService = Stubs.of(EdgePortService.class);
+		component.groupService = Stubs.of(GroupService.class);
+		component.activate(null);
+
+		ConnectPoint in = new ConnectPoint(DEVICE, PortNumber.portNumber(1));
+		hits = new InboundPacket[hosts];
+		misses = new InboundPacket[hosts];
+		for (int i = 0; i < hosts; i++) {
+			long known = 0x020000100000L + i;
+			component.mac_table.learn(DEVICE, known, 2);
+			hits[i] = packet(in, SENDER, MacAddress.valueOf(known));
+			misses[i] = packet(in, SENDER, MacAddress.valueOf(0x020000200000L + i));
+		}
+		broadcast = packet(in, SENDER, MacAddress.BROADCAST);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		component.deactivate();
+	}
+
+	private static InboundPacket packet(ConnectPoint in, MacAddress src, MacAddress dst) {
+		IPv4 ip = new IPv4();
+		ip.setSourceAddress("10.0.0.1");
+		ip.setDestinationAddress("10.0.0.2");
+		ip.setProtocol(IPv4.PROTOCOL_UDP);
+		Ethernet eth = new Ethernet();
+		eth.setSourceMACAddress(src);
+		eth.setDestinationMACAddress(dst);
+		eth.setEtherType(Ethernet.TYPE_IPV4);
+		eth.setPayload(ip);
+		return new DefaultInboundPacket(in, eth, ByteBuffer.wrap(eth.serialize()));
+	}
+
+	private InboundPacket pick(InboundPacket[] packets) {
+		int i = next++;
+		if (next == packets.length) {
+			next = 0;
+		}
+		return packets[i];
+	}
+
+	@Benchmark
+	public BenchPacketContext hit() {
+		BenchPacketContext pc = new BenchPacketContext(pick(hits));
+		component.bridgeProcessor.process(pc);
+		return pc;
+	}
+
+	@Benchmark
+	public BenchPacketContext miss() {
+		BenchPacketContext pc = new BenchPacketContext(pick(misses));
+		component.bridgeProcessor.process(pc);
+		return pc;
+	}
+
+	@Benchmark
+	public BenchPacketContext broadcast() {
+		BenchPacketContext pc = new BenchPacketContext(broadcast);
+		component.bridgeProcessor.process(pc);
+		return pc;
+	}
+}
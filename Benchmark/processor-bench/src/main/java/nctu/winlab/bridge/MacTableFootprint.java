@@ -0,0 +1,62 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+package nctu.winlab.bridge;
+
+import com.google.common.collect.Maps;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.PortNumber;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.Map;
+
+/**
+ * Heap held by one device's MAC table with {@code hosts} learned MACs: the
+ * {@code ConcurrentMap<MacAddress, PortNumber>} the bridge used to keep
+ * against {@link LongMacTable}. Sizes are the retained object graphs as
+ * JOL walks them, so they do not depend on GC timing. The off-heap table
+ * is not on the heap; its direct buffer is the same size as the heap
+ * table's long[].
+ *
+ * <pre>java -cp target/benchmarks.jar nctu.winlab.bridge.MacTableFootprint [hosts]</pre>
+ */
+public final class MacTableFootprint {
+
+	private MacTableFootprint() {
+	}
+
+	public static void main(String[] args) {
+		int hosts = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+
+		Map<MacAddress, PortNumber> map = Maps.newConcurrentMap();
+		LongMacTable table = new LongMacTable(hosts, hosts, false);
+		for (int i = 0; i < hosts; i++) {
+			long mac = 0x020000000000L + i;
+			long port = 1 + i % 48;
+			map.put(MacAddress.valueOf(mac), PortNumber.portNumber(port));
+			table.put(mac, port, 0, MacTableStore.NO_PORT);
+		}
+
+		GraphLayout mapLayout = GraphLayout.parseInstance(map);
+		GraphLayout tableLayout = GraphLayout.parseInstance(table);
+		System.out.printf("%d hosts%n", hosts);
+		System.out.printf("ConcurrentMap: %,14d bytes %,10d objects %6.1f B/host%n",
+				mapLayout.totalSize(), mapLayout.totalCount(), (double) mapLayout.totalSize() / hosts);
+		System.out.printf("LongMacTable:  %,14d bytes %,10d objects %6.1f B/host%n",
+				tableLayout.totalSize(), tableLayout.totalCount(), (double) tableLayout.totalSize() / hosts);
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import com.google.common.collect.Maps;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flow.criteria.Criterion;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Heap retained by the per-client DHCP rule tables under client churn.
+ * {@code clients} clients join one after another, each getting a to-server
+ * and a to-client rule on every device of a {@code hops}-device path, while
+ * only the last {@code active} clients stay; the older ones leave and their
+ * rules time out on the switches. The unbounded nested maps the app used to
+ * keep are compared with {@link ClientRuleTable}, which hears the removals
+ * (a {@code lost} fraction of them is dropped to exercise the bound).
+ *
+ * <pre>java -cp target/benchmarks.jar nctu.winlab.unicastdhcp.ClientRuleChurn [clients] [active] [hops] [lost]</pre>
+ */
+public final class ClientRuleChurn {
+
+	private static final ApplicationId APP = new DefaultApplicationId(1, "nctu.winlab.unicastdhcp");
+
+	private ClientRuleChurn() {
+	}
+
+	public static void main(String[] args) {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int active = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+		int hops = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		double lost = args.length > 3 ? Double.parseDouble(args[3]) : 0.1;
+
+		DeviceId[] devices = new DeviceId[hops];
+		for (int i = 0; i < hops; i++) {
+			devices[i] = DeviceId.deviceId(String.format("of:%016x", i + 1));
+		}
+
+		long base = usedHeap();
+		Map<DeviceId, Map<MacAddress, FlowRule>> toServer = Maps.newConcurrentMap();
+		Map<DeviceId, Map<MacAddress, FlowRule>> toClient = Maps.newConcurrentMap();
+		for (int c = 0; c < clients; c++) {
+			MacAddress mac = MacAddress.valueOf(0x020000000000L + c);
+			for (DeviceId d : devices) {
+				toServer.computeIfAbsent(d, k -> Maps.newConcurrentMap()).put(mac, rule(d, mac, true));
+				toClient.computeIfAbsent(d, k -> Maps.newConcurrentMap()).put(mac, rule(d, mac, false));
+			}
+		}
+		long nested = usedHeap() - base;
+		int nestedEntries = 0;
+		for (Map<MacAddress, FlowRule> m : toServer.values()) {
+			nestedEntries += m.size();
+		}
+		toServer = null;
+		toClient = null;
+
+		base = usedHeap();
+		ClientRuleTable server = new ClientRuleTable(Criterion.Type.ETH_SRC, OsgiPropertyConstants.CLIENT_RULE_CAPACITY_DEFAULT, 60);
+		ClientRuleTable client = new ClientRuleTable(Criterion.Type.ETH_DST, OsgiPropertyConstants.CLIENT_RULE_CAPACITY_DEFAULT, 60);
+		ArrayDeque<FlowRule[]> joined = new ArrayDeque<>();
+		Random random = new Random(1);
+		for (int c = 0; c < clients; c++) {
+			MacAddress mac = MacAddress.valueOf(0x020000000000L + c);
+			FlowRule[] rules = new FlowRule[2 * hops];
+			for (int i = 0; i < hops; i++) {
+				rules[2 * i] = rule(devices[i], mac, true);
+				rules[2 * i + 1] = rule(devices[i], mac, false);
+				server.put(devices[i], mac, rules[2 * i]);
+				client.put(devices[i], mac, rules[2 * i + 1]);
+			}
+			joined.addLast(rules);
+			if (joined.size() > active) {
+				for (FlowRule rule : joined.removeFirst()) {
+					if (random.nextDouble() >= lost) {
+						server.removed(rule);
+						client.removed(rule);
+					}
+				}
+			}
+		}
+		joined.clear();
+		long table = usedHeap() - base;
+
+		System.out.printf("%d clients, %d active, %d hops, %.0f%% removals lost%n", clients, active, hops, lost * 100);
+		System.out.printf("nested maps:     %8d entries/table  %,12d bytes%n", nestedEntries, nested);
+		System.out.printf("ClientRuleTable: %8d entries/table  %,12d bytes (%d evicted)%n",
+				server.size(), table, server.evictions() + client.evictions());
+	}
+
+	private static FlowRule rule(DeviceId d, MacAddress mac, boolean toServer) {
+		TrafficSelector.Builder selector = DefaultTrafficSelector.builder().matchInPort(PortNumber.portNumber(1));
+		if (toServer) {
+			selector.matchEthSrc(mac);
+		} else {
+			selector.matchEthDst(mac);
+		}
+		return DefaultFlowRule.builder()
+				.withSelector(selector.build())
+				.withTreatment(DefaultTrafficTreatment.builder().setOutput(PortNumber.portNumber(2)).build())
+				.withPriority(30)
+				.withIdleTimeout(30)
+				.forDevice(d)
+				.fromApp(APP)
+				.build();
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import nctu.winlab.bench.BenchServices.BenchCoreService;
+import nctu.winlab.bench.BenchServices.BenchPacketContext;
+import nctu.winlab.bench.BenchServices.CountingFlowRuleService;
+import nctu.winlab.bench.BenchServices.CountingPacketService;
+import nctu.winlab.bench.Stubs;
+
+import org.onlab.graph.ScalarWeight;
+import org.onlab.packet.DHCP;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.UDP;
+import org.onlab.packet.dhcp.DhcpOption;
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultLink;
+import org.onosproject.net.DefaultPath;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.config.NetworkConfigRegistry;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.edge.EdgePortService;
+import org.onosproject.net.packet.DefaultInboundPacket;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.provider.ProviderId;
+import org.onosproject.net.topology.PathService;
+import org.onosproject.net.topology.TopologyService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.service.component.ComponentContext;
+
+import java.nio.ByteBuffer;
+import java.util.Hashtable;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one DHCP packet-in through the unicast DHCP processor: a client
+ * DISCOVER that needs a path towards the server, and server OFFERs for
+ * clients with (hit) and without (miss) a reply rule on the device, in
+ * both rule modes.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DhcpProcessorBenchmark {
+
+	private static final ProviderId PID = new ProviderId("bench", "nctu.winlab.bench");
+	private static final DeviceId EDGE = DeviceId.deviceId("of:0000000000000001");
+	private static final DeviceId SERVER = DeviceId.deviceId("of:0000000000000002");
+	private static final MacAddress SERVER_MAC = MacAddress.valueOf("02:00:00:00:ff:ff");
+
+	@Param({ "4096" })
+	public int clients;
+
+	@Param({ "aggregate", "perClient" })
+	public String mode;
+
+	private AppComponent component;
+	private InboundPacket[] discovers;
+	private InboundPacket[] offerHits;
+	private InboundPacket[] offerMisses;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		ConnectPoint up = new ConnectPoint(EDGE, PortNumber.portNumber(1));
+		ConnectPoint down = new ConnectPoint(SERVER, PortNumber.portNumber(2));
+		Link link = DefaultLink.builder().providerId(PID).src(up).dst(down).type(Link.Type.DIRECT).build();
+		Set<Path> paths = ImmutableSet.of(new DefaultPath(PID, ImmutableList.of(link), ScalarWeight.toWeight(1)));
+
+		component = new AppComponent();
+		component.cfgService = new ComponentConfigAdapter();
+		component.coreService = new BenchCoreService();
+		component.packetService = new CountingPacketService();
+		component.flowRuleService = new CountingFlowRuleService();
+		component.ncfgService = Stubs.of(NetworkConfigRegistry.class);
+		component.pathService = Stubs.of(PathService.class, ImmutableMap.of("getPaths", args -> paths));
+		component.topologyService = Stubs.of(TopologyService.class);
+		component.eptService = Stubs.of(EdgePortService.class);
+		component.deviceService = Stubs.of(DeviceService.class);
+		component.activate(null);
+		Hashtable<String, Object> properties = new Hashtable<>();
+		properties.put(OsgiPropertyConstants.DHCP_RULE_MODE, mode);
+		component.modified(Stubs.of(ComponentContext.class, ImmutableMap.of("getProperties", args -> properties)));
+		component.serverRing.setServers(ImmutableList.of(new ConnectPoint(SERVER, PortNumber.portNumber(1))));
+		component.serverPaths.setServers(ImmutableSet.of(SERVER));
+		component.aggregateRules.update(ImmutableList.of(EDGE, SERVER), SERVER, PortNumber.portNumber(1), false);
+
+		ConnectPoint client = new ConnectPoint(EDGE, PortNumber.portNumber(3));
+		discovers = new InboundPacket[clients];
+		offerHits = new InboundPacket[clients];
+		offerMisses = new InboundPacket[clients];
+		for (int i = 0; i < clients; i++) {
+			MacAddress known = MacAddress.valueOf(0x020000100000L + i);
+			MacAddress unknown = MacAddress.valueOf(0x020000200000L + i);
+			discovers[i] = packet(client, DHCP.MsgType.DHCPDISCOVER, known, MacAddress.BROADCAST);
+			offerHits[i] = packet(up, DHCP.MsgType.DHCPOFFER, SERVER_MAC, known);
+			offerMisses[i] = packet(up, DHCP.MsgType.DHCPOFFER, SERVER_MAC, unknown);
+			component.dhcpProcessor.process(new BenchPacketContext(discovers[i]));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		component.deactivate();
+	}
+
+	private static InboundPacket packet(ConnectPoint in, DHCP.MsgType type, MacAddress src, MacAddress dst) {
+		boolean fromClient = type == DHCP.MsgType.DHCPDISCOVER || type == DHCP.MsgType.DHCPREQUEST;
+		MacAddress client = fromClient ? src : dst;
+
+		DhcpOption msgType = new DhcpOption();
+		msgType.setCode(DHCP.DHCPOptionCode.OptionCode_MessageType.getValue());
+		msgType.setLength((byte) 1);
+		msgType.setData(new byte[] { type.getValue() });
+		DhcpOption end = new DhcpOption();
+		end.setCode(DHCP.DHCPOptionCode.OptionCode_END.getValue());
+		end.setLength((byte) 0);
+		end.setData(new byte[0]);
+
+		DHCP dhcp = new DHCP();
+		dhcp.setOpCode(fromClient ? DHCP.OPCODE_REQUEST : DHCP.OPCODE_REPLY);
+		dhcp.setHardwareType(DHCP.HWTYPE_ETHERNET);
+		dhcp.setHardwareAddressLength((byte) Ethernet.DATALAYER_ADDRESS_LENGTH);
+		dhcp.setTransactionId((int) client.toLong());
+		dhcp.setClientHardwareAddress(client.toBytes());
+		dhcp.setServerName("");
+		dhcp.setBootFileName("");
+		dhcp.setOptions(ImmutableList.of(msgType, end));
+
+		UDP udp = new UDP();
+		udp.setSourcePort(fromClient ? UDP.DHCP_CLIENT_PORT : UDP.DHCP_SERVER_PORT);
+		udp.setDestinationPort(fromClient ? UDP.DHCP_SERVER_PORT : UDP.DHCP_CLIENT_PORT);
+		udp.setPayload(dhcp);
+
+		IPv4 ip = new IPv4();
+		ip.setSourceAddress(fromClient ? "0.0.0.0" : "10.0.0.254");
+		ip.setDestinationAddress("255.255.255.255");
+		ip.setProtocol(IPv4.PROTOCOL_UDP);
+		ip.setPayload(udp);
+
+		Ethernet eth = new Ethernet();
+		eth.setSourceMACAddress(src);
+		eth.setDestinationMACAddress(dst);
+		eth.setEtherType(Ethernet.TYPE_IPV4);
+		eth.setPayload(ip);
+		return new DefaultInboundPacket(in, eth, ByteBuffer.wrap(eth.serialize()));
+	}
+
+	private InboundPacket pick(InboundPacket[] packets) {
+		int i = next++;
+		if (next == packets.length) {
+			next = 0;
+		}
+		return packets[i];
+	}
+
+	@Benchmark
+	public BenchPacketContext discover() {
+		BenchPacketContext pc = new BenchPacketContext(pick(discovers));
+		component.dhcpProcessor.process(pc);
+		return pc;
+	}
+
+	@Benchmark
+	public BenchPacketContext offerHit() {
+		BenchPacketContext pc = new BenchPacketContext(pick(offerHits));
+		component.dhcpProcessor.process(pc);
+		return pc;
+	}
+
+	@Benchmark
+	public BenchPacketContext offerMiss() {
+		BenchPacketContext pc = new BenchPacketContext(pick(offerMisses));
+		component.dhcpProcessor.process(pc);
+		return pc;
+	}
+}
@@ -34,21 +34,61 @@ import java.util.Dictionary;
 import java.util.Properties;
 
 import static org.onlab.util.Tools.get;
+import static org.onlab.util.Tools.groupedThreads;
+import static nctu.winlab.bridge.OsgiPropertyConstants.MAC_AGING_TIME;
+import static nctu.winlab.bridge.OsgiPropertyConstants.MAC_AGING_TIME_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.MAC_TABLE_CAPACITY;
+import static nctu.winlab.bridge.OsgiPropertyConstants.MAC_TABLE_CAPACITY_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.MAC_TABLE_OFF_HEAP;
+import static nctu.winlab.bridge.OsgiPropertyConstants.MAC_TABLE_OFF_HEAP_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FULL_TRACING;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FULL_TRACING_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.TRACE_SAMPLE_RATE;
+import static nctu.winlab.bridge.OsgiPropertyConstants.TRACE_SAMPLE_RATE_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.RULE_BATCH_SIZE;
+import static nctu.winlab.bridge.OsgiPropertyConstants.RULE_BATCH_SIZE_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.RULE_BATCH_DELAY;
+import static nctu.winlab.bridge.OsgiPropertyConstants.RULE_BATCH_DELAY_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FORWARDING_MODE;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FORWARDING_MODE_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FORWARDING_MODE_DST_ONLY;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FORWARDING_MODE_SRC_DST;
+import static nctu.winlab.bridge.OsgiPropertyConstants.BROADCAST_TREE;
+import static nctu.winlab.bridge.OsgiPropertyConstants.BROADCAST_TREE_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.PACKET_WORKERS;
+import static nctu.winlab.bridge.OsgiPropertyConstants.PACKET_WORKERS_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.PACKET_QUEUE_SIZE;
+import static nctu.winlab.bridge.OsgiPropertyConstants.PACKET_QUEUE_SIZE_DEFAULT;
 
 //
+import java.util.List;
 import java.util.Map; //mac table
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 //
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.DefaultTrafficSelector;
 import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.TrafficTreatment;
 import org.onosproject.net.flow.TrafficSelector.Builder;
 import org.onosproject.net.flow.FlowRule;
 import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleOperation;
 import org.onosproject.net.flow.DefaultFlowRule;
 
+import org.onosproject.net.packet.DefaultOutboundPacket;
 import org.onosproject.net.packet.InboundPacket;
 import org.onosproject.net.packet.OutboundPacket;
 import org.onosproject.net.packet.PacketContext;
@@ -56,6 +96,16 @@ import org.onosproject.net.packet.PacketProcessor;
 import org.onosproject.net.packet.PacketService;
 import org.onosproject.net.packet.PacketPriority;
 
+import org.onosproject.net.edge.EdgePortEvent;
+import org.onosproject.net.edge.EdgePortListener;
+import org.onosproject.net.edge.EdgePortService;
+import org.onosproject.net.group.GroupEvent;
+import org.onosproject.net.group.GroupListener;
+import org.onosproject.net.group.GroupService;
+import org.onosproject.net.topology.TopologyEvent;
+import org.onosproject.net.topology.TopologyListener;
+import org.onosproject.net.topology.TopologyService;
+
 import org.onosproject.net.ConnectPoint;
 import org.onosproject.net.DeviceId;
 import org.onosproject.net.PortNumber;
@@ -73,21 +123,81 @@ import org.onlab.packet.MacAddress;
 /**
  * Skeletal ONOS application component.
  */
-@Component(immediate = true)
-public class AppComponent{
+@Component(
+	immediate = true,
+	service = BridgeTraceService.class,
+	property = {
+		MAC_AGING_TIME + ":Integer=" + MAC_AGING_TIME_DEFAULT,
+		MAC_TABLE_CAPACITY + ":Integer=" + MAC_TABLE_CAPACITY_DEFAULT,
+		MAC_TABLE_OFF_HEAP + ":Boolean=" + MAC_TABLE_OFF_HEAP_DEFAULT,
+		FULL_TRACING + ":Boolean=" + FULL_TRACING_DEFAULT,
+		TRACE_SAMPLE_RATE + ":Integer=" + TRACE_SAMPLE_RATE_DEFAULT,
+		RULE_BATCH_SIZE + ":Integer=" + RULE_BATCH_SIZE_DEFAULT,
+		RULE_BATCH_DELAY + ":Integer=" + RULE_BATCH_DELAY_DEFAULT,
+		FORWARDING_MODE + "=" + FORWARDING_MODE_DEFAULT,
+		BROADCAST_TREE + ":Boolean=" + BROADCAST_TREE_DEFAULT,
+		PACKET_WORKERS + ":Integer=" + PACKET_WORKERS_DEFAULT,
+		PACKET_QUEUE_SIZE + ":Integer=" + PACKET_QUEUE_SIZE_DEFAULT,
+	}
+)
+public class AppComponent implements BridgeTraceService {
 
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
-	/** Some configurable property. */
-	private String someProperty;
+	/** Seconds a learned MAC is kept without being seen again. */
+	private int mac_aging_time = MAC_AGING_TIME_DEFAULT;
+
+	/** Maximum number of learned MACs per device. */
+	private int mac_table_capacity = MAC_TABLE_CAPACITY_DEFAULT;
+
+	/** Keep the MAC tables in direct (off-heap) memory. */
+	private boolean mac_table_off_heap = MAC_TABLE_OFF_HEAP_DEFAULT;
+
+	/** Flow rules per device installed as one batch. */
+	private int rule_batch_size = RULE_BATCH_SIZE_DEFAULT;
+
+	/** Longest time (ms) a flow rule waits for its batch to fill. */
+	private int rule_batch_delay = RULE_BATCH_DELAY_DEFAULT;
+
+	/** Match eth_dst only ("dstOnly") instead of every (eth_src, eth_dst) pair ("srcDst"). */
+	private boolean dst_only = FORWARDING_MODE_DST_ONLY.equals(FORWARDING_MODE_DEFAULT);
+
+	/** Replicate broadcasts and unknown unicast along a spanning tree in the data plane instead of flooding. */
+	private boolean broadcast_tree = BROADCAST_TREE_DEFAULT;
+
+	/** Threads handling packet-ins, striped by device; 0 handles them on the ONOS packet thread. */
+	private int packet_workers = PACKET_WORKERS_DEFAULT;
+
+	/** Packet-ins each worker may have waiting. */
+	private int packet_queue_size = PACKET_QUEUE_SIZE_DEFAULT;
 	
 	//
-	protected Map< DeviceId, Map<MacAddress, PortNumber> > mac_table = Maps.newConcurrentMap();
+	protected MacTableStore mac_table = new PrimitiveMacTableStore(mac_table_off_heap, mac_aging_time, mac_table_capacity);
+	private ScheduledExecutorService agingExecutor;
+	/** Evictions of each device's MAC table at the last check, and the devices evicting since. */
+	private final Map<DeviceId, Long> evictions_seen = Maps.newHashMap();
+	private final Set<DeviceId> evicting = Sets.newHashSet();
+	private ScheduledExecutorService batchExecutor;
+	protected FlowRuleBatcher batcher;
+	protected PendingInstallCache pending_install = new PendingInstallCache(2000);
+	protected FlowRuleIndex rule_index = new FlowRuleIndex();
+	private final InternalFlowRuleListener flowListener = new InternalFlowRuleListener();
+	protected BroadcastTree tree;
+	/** Bounds the walk installing a flow along the tree, in case the MAC tables disagree and loop. */
+	private static final int MAX_TREE_HOPS = 64;
+	private ScheduledExecutorService treeExecutor;
+	/** How long deactivate waits for each executor's running task. */
+	private static final long EXECUTOR_STOP_SECONDS = 5;
+	private final InternalTopologyListener topologyListener = new InternalTopologyListener();
+	private final InternalEdgePortListener edgeListener = new InternalEdgePortListener();
+	private final InternalGroupListener groupListener = new InternalGroupListener();
+	protected PacketTracer tracer = new PacketTracer(1024, TRACE_SAMPLE_RATE_DEFAULT);
 	private int idel_time = 30;
 	private int priority = 30;
 	private ApplicationId appId;
 	//
-	private LearningBridgeProcessor bridgeProcessor = new LearningBridgeProcessor();
+	LearningBridgeProcessor bridgeProcessor = new LearningBridgeProcessor();
+	private volatile PacketDispatcher dispatcher;
 	//
 	
 	@Reference(cardinality = ReferenceCardinality.MANDATORY)
@@ -102,12 +212,30 @@ public class AppComponent{
 	
 	@Reference(cardinality = ReferenceCardinality.MANDATORY)
 	protected FlowRuleService flowRuleService;
+
+	@Reference(cardinality = ReferenceCardinality.MANDATORY)
+	protected TopologyService topologyService;
+
+	@Reference(cardinality = ReferenceCardinality.MANDATORY)
+	protected EdgePortService eptService;
+
+	@Reference(cardinality = ReferenceCardinality.MANDATORY)
+	protected GroupService groupService;
 	//
 
 
 	@Activate
-	protected void activate() {
+	protected void activate(ComponentContext context) {
 		appId = coreService.registerApplication("nctu.winlab.bridge");
+		batchExecutor = Executors.newSingleThreadScheduledExecutor(groupedThreads("nctu/winlab/bridge", "rule-batch", log));
+		batcher = new FlowRuleBatcher(flowRuleService, batchExecutor, new InstallContext(), rule_batch_size, rule_batch_delay);
+		treeExecutor = Executors.newSingleThreadScheduledExecutor(groupedThreads("nctu/winlab/bridge", "bcast-tree", log));
+		tree = new BroadcastTree(appId, priority, topologyService, eptService, groupService, flowRuleService);
+		groupService.addListener(groupListener);
+		topologyService.addListener(topologyListener);
+		eptService.addListener(edgeListener);
+		cfgService.registerProperties(getClass());
+		modified(context);
 		packetService.addProcessor(
 			bridgeProcessor, PacketProcessor.director(3)
 		);
@@ -119,42 +247,173 @@ public class AppComponent{
 		    	DefaultTrafficSelector.builder().matchEthType( Ethernet.TYPE_ARP  ).build(),
 		    	PacketPriority.REACTIVE, appId
 		);
-		//cfgService.registerProperties(getClass());
+		agingExecutor = Executors.newSingleThreadScheduledExecutor(groupedThreads("nctu/winlab/bridge", "mac-aging", log));
+		agingExecutor.scheduleWithFixedDelay(() -> {
+			mac_table.sweep();
+			pending_install.expire();
+			evictionReport();
+		}, 1, 1, TimeUnit.SECONDS);
+		flowRuleService.addListener(flowListener);
 		log.info("Started");
 	}
 
 	@Deactivate
 	protected void deactivate() {
+		cfgService.unregisterProperties(getClass(), false);
+		//no packet-in may install a rule once the rules are removed
+		packetService.removeProcessor(bridgeProcessor);
+		dispatcher.shutdown();
+		log.debug(dispatcher.toString());
+		flowRuleService.removeListener(flowListener);
+		topologyService.removeListener(topologyListener);
+		eptService.removeListener(edgeListener);
+		groupService.removeListener(groupListener);
+		stop(treeExecutor);
+		tree.clear();
+		stop(agingExecutor);
+		stop(batchExecutor);
+		batcher.clear();
 		flowRuleService.removeFlowRulesById(appId);
-        	packetService.removeProcessor(bridgeProcessor);
-		//cfgService.unregisterProperties(getClass(), false);
+		mac_table.clear();
+		evictions_seen.clear();
+		evicting.clear();
+		pending_install.clear();
+		rule_index.clear();
 		log.info("Stopped");
 	}
-	/**
+
+	// Stops the executor and waits for the task it is running.
+	private void stop(ExecutorService executor) {
+		executor.shutdownNow();
+		try {
+			if (!executor.awaitTermination(EXECUTOR_STOP_SECONDS, TimeUnit.SECONDS)) {
+				log.warn("Executor still busy after {}s", EXECUTOR_STOP_SECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
 	@Modified
 	public void modified(ComponentContext context) {
-	Dictionary<?, ?> properties = context != null ? context.getProperties() : new Properties();
-	if (context != null) {
-	    someProperty = get(properties, "someProperty");
-	}
-	log.info("Reconfigured");
+		Dictionary<?, ?> properties = context != null ? context.getProperties() : new Properties();
+
+		mac_aging_time = Math.max(1, intProperty(properties, MAC_AGING_TIME, MAC_AGING_TIME_DEFAULT));
+		mac_table_capacity = Math.max(1, intProperty(properties, MAC_TABLE_CAPACITY, MAC_TABLE_CAPACITY_DEFAULT));
+
+		boolean newOffHeap = booleanProperty(properties, MAC_TABLE_OFF_HEAP, MAC_TABLE_OFF_HEAP_DEFAULT);
+		if (newOffHeap != mac_table_off_heap) {
+			//switching memory kind starts over with an empty table
+			mac_table_off_heap = newOffHeap;
+			mac_table = new PrimitiveMacTableStore(mac_table_off_heap, mac_aging_time, mac_table_capacity);
+		} else {
+			mac_table.configure(mac_aging_time, mac_table_capacity);
+		}
+
+		rule_batch_size = intProperty(properties, RULE_BATCH_SIZE, RULE_BATCH_SIZE_DEFAULT);
+		rule_batch_delay = intProperty(properties, RULE_BATCH_DELAY, RULE_BATCH_DELAY_DEFAULT);
+		batcher.configure(rule_batch_size, rule_batch_delay);
+
+		String mode = get(properties, FORWARDING_MODE);
+		if (Strings.isNullOrEmpty(mode)) {
+			mode = FORWARDING_MODE_DEFAULT;
+		} else if (!mode.trim().equals(FORWARDING_MODE_SRC_DST) && !mode.trim().equals(FORWARDING_MODE_DST_ONLY)) {
+			log.warn("Invalid {} value {}, using {}", FORWARDING_MODE, mode, FORWARDING_MODE_DEFAULT);
+			mode = FORWARDING_MODE_DEFAULT;
+		}
+		dst_only = FORWARDING_MODE_DST_ONLY.equals(mode.trim());
+
+		int newWorkers = Math.max(0, intProperty(properties, PACKET_WORKERS, PACKET_WORKERS_DEFAULT));
+		int newQueueSize = Math.max(1, intProperty(properties, PACKET_QUEUE_SIZE, PACKET_QUEUE_SIZE_DEFAULT));
+		if (dispatcher == null || newWorkers != packet_workers || newQueueSize != packet_queue_size) {
+			packet_workers = newWorkers;
+			packet_queue_size = newQueueSize;
+			PacketDispatcher old = dispatcher;
+			dispatcher = new PacketDispatcher("nctu/winlab/bridge", packet_workers, packet_queue_size,
+				bridgeProcessor::actLikeSwitch, log);
+			if (old != null) old.shutdown();
+		}
+
+		boolean newTree = booleanProperty(properties, BROADCAST_TREE, BROADCAST_TREE_DEFAULT);
+		if (newTree != broadcast_tree) {
+			broadcast_tree = newTree;
+			treeExecutor.execute(broadcast_tree ? tree::update : tree::clear);
+		}
+
+		tracer.setFullTracing(booleanProperty(properties, FULL_TRACING, FULL_TRACING_DEFAULT));
+		tracer.setSampleRate(intProperty(properties, TRACE_SAMPLE_RATE, TRACE_SAMPLE_RATE_DEFAULT));
+		log.info("Reconfigured: aging {}s, capacity {}/device, off-heap {}, rule batch {} / {}ms, {} forwarding, broadcast tree {}, {} packet workers",
+			mac_aging_time, mac_table_capacity, mac_table_off_heap, rule_batch_size, rule_batch_delay,
+			dst_only ? FORWARDING_MODE_DST_ONLY : FORWARDING_MODE_SRC_DST, broadcast_tree, packet_workers);
 	}
 
+	// Worst-case forwarding rules per device: one per learned host with dstOnly,
+	// one per ordered host pair with srcDst.
 	@Override
-	public void someMethod() {
-	log.info("Invoked");
+	public List<String> traceDump() {
+		List<String> lines = Lists.newArrayList(tracer.dump());
+		lines.add(batcher.batchSizes.toString());
+		lines.add(batcher.flushLatency.toString());
+		lines.add(dispatcher.toString());
+		ruleCountReport(lines);
+		return lines;
+	}
+
+	private void ruleCountReport(List<String> lines) {
+		long dstOnlyTotal = 0;
+		long srcDstTotal = 0;
+		for (DeviceId deviceId : mac_table.devices()) {
+			long hosts = mac_table.size(deviceId);
+			dstOnlyTotal += hosts;
+			srcDstTotal += hosts * (hosts - 1);
+			lines.add(String.format("rules on %s: %d hosts, dstOnly <= %d, srcDst <= %d", deviceId, hosts, hosts, hosts * (hosts - 1)));
+		}
+		lines.add(String.format("rules total: dstOnly <= %d, srcDst <= %d (%s mode, %d installed)", dstOnlyTotal, srcDstTotal,
+			dst_only ? FORWARDING_MODE_DST_ONLY : FORWARDING_MODE_SRC_DST, batcher.applied()));
+	}
+
+	// Warns once when a device's MAC table fills up and starts evicting, and
+	// again only after it has gone a check without evicting.
+	private void evictionReport() {
+		for (DeviceId deviceId : mac_table.devices()) {
+			long n = mac_table.evictions(deviceId);
+			Long last = evictions_seen.put(deviceId, n);
+			boolean evicted = n > (last == null ? 0 : last);
+			if (evicted && evicting.add(deviceId)) {
+				log.warn("MAC table of {} is full at {} entries and evicting ({} so far); raise {} if this persists",
+					deviceId, mac_table_capacity, n, MAC_TABLE_CAPACITY);
+			} else if (!evicted && evicting.remove(deviceId)) {
+				log.info("MAC table of {} stopped evicting after {} evictions", deviceId, n);
+			}
+		}
+	}
+
+	private boolean booleanProperty(Dictionary<?, ?> properties, String name, boolean defaultValue) {
+		String s = get(properties, name);
+		return Strings.isNullOrEmpty(s) ? defaultValue : Boolean.parseBoolean(s.trim());
+	}
+
+	private int intProperty(Dictionary<?, ?> properties, String name, int defaultValue) {
+		String s = get(properties, name);
+		try {
+			return Strings.isNullOrEmpty(s) ? defaultValue : Integer.parseInt(s.trim());
+		} catch (NumberFormatException e) {
+			log.warn("Invalid {} value {}, using {}", name, s, defaultValue);
+			return defaultValue;
+		}
 	}
-	*/
 	
-	private class LearningBridgeProcessor implements PacketProcessor {
+	class LearningBridgeProcessor implements PacketProcessor {
 		@Override
 	
 		public void process( PacketContext pc ){
 			//log.info("aaaaaaaaaaaaaaaaaaaaaa");
 			if (pc.isHandled()) return;
-			ConnectPoint cp = pc.inPacket().receivedFrom();
-			mac_table.putIfAbsent( cp.deviceId(), Maps.newConcurrentMap() );
-			actLikeSwitch( pc );
+			//type check; everything else is left to the other processors
+			Ethernet etherFrame = pc.inPacket().parsed();
+			if (etherFrame == null) return;
+			if (etherFrame.getEtherType() != Ethernet.TYPE_IPV4 && etherFrame.getEtherType() != Ethernet.TYPE_ARP) return;
+			dispatcher.dispatch( pc );
 		}
 
 		public void actLikeSwitch( PacketContext pc ){
@@ -162,49 +421,166 @@ public class AppComponent{
 			Ethernet etherFrame 	= inPacket.parsed();
 			ConnectPoint cp 	= inPacket.receivedFrom();
 			
-			//type check
-			if (etherFrame.getEtherType() != Ethernet.TYPE_IPV4 && etherFrame.getEtherType() != Ethernet.TYPE_ARP) return;
-			
-			Map<MacAddress, PortNumber> 	now_mac_table 	= mac_table.get( cp.deviceId() );
 			MacAddress 			src 		= etherFrame.getSourceMAC();
 			MacAddress			dst 		= etherFrame.getDestinationMAC();
-			PortNumber 			outputPort 	= now_mac_table.get( dst );
-			
-			now_mac_table.put( src, cp.port() );
+			long 				out 		= mac_table.lookup( cp.deviceId(), dst.toLong() );
 			
-			log.info( "Add MAC address ==> switch {}, MAC: {}, port: {}", cp.deviceId().toString(), src.toString(), now_mac_table.get(src).toString() );
+			long was 	= mac_table.learn( cp.deviceId(), src.toLong(), cp.port().toLong() );
+			if (was != MacTableStore.NO_PORT && was != cp.port().toLong()) {
+				hostMoved( cp, src, was );
+			}
+
+			//only the edge switch where a frame enters the tree punts it, so learn
+			//the sender on every other device of the tree from this one copy
+			boolean treeIngress = broadcast_tree && tree.replicatesInDataPlane( cp.deviceId() ) && tree.isEdge( cp );
+			if (treeIngress) {
+				for (Map.Entry<DeviceId, PortNumber> e : tree.portsToward( cp.deviceId() ).entrySet()) {
+					mac_table.learn( e.getKey(), src.toLong(), e.getValue().toLong() );
+				}
+			}
 
 			//miss or FLOOD
-			if (outputPort == null){
-				pc.treatmentBuilder().setOutput( PortNumber.FLOOD );
-				pc.send();
-				if(dst.toString().equals("FF:FF:FF:FF:FF:FF") ){ 
-					log.info("MAC {}. Flood Packet!", dst.toString() );
+			if (out == MacTableStore.NO_PORT){
+				if (broadcast_tree && flood( pc, cp, dst )){
+					tracer.trace( dst.isBroadcast() ? PacketTracer.BROADCAST : PacketTracer.MISS, cp.deviceId(), cp.port().toLong(), src.toLong(), dst.toLong() );
+					return;
+				}
+				packetOut( pc, DefaultTrafficTreatment.builder().setOutput( PortNumber.FLOOD ) );
+				if( dst.isBroadcast() ){ 
+					tracer.trace( PacketTracer.BROADCAST, cp.deviceId(), cp.port().toLong(), src.toLong(), dst.toLong() );
 					return; //FLOOD
 				}
-				log.info( "MAC {} is missed on {} ! Flood Packet!", dst.toString(), cp.deviceId().toString() ); //miss
+				tracer.trace( PacketTracer.MISS, cp.deviceId(), cp.port().toLong(), src.toLong(), dst.toLong() ); //miss
 				return;
 			}
 			
 			//hit
-			pc.treatmentBuilder().setOutput( outputPort );
-			pc.send();
+			PortNumber outputPort = PortNumber.portNumber( out );
+			packetOut( pc, DefaultTrafficTreatment.builder().setOutput( outputPort ) );
+
+			tracer.trace( PacketTracer.HIT, cp.deviceId(), out, src.toLong(), dst.toLong() );
 
-			log.info( "MAC {} is matched on {}! Install flow rule!", dst.toString(), cp.deviceId().toString() );
+			installRule( cp.deviceId(), src, dst, outputPort );
+			if (!treeIngress) return;
+
+			//the switches further along the tree never see this flow at the
+			//controller: install its rule on each of them up to the exit port
+			ConnectPoint next = tree.neighbor( cp.deviceId(), outputPort );
+			for (int hops = 0; next != null && hops < MAX_TREE_HOPS; hops++) {
+				long nextOut = mac_table.lookup( next.deviceId(), dst.toLong() );
+				if (nextOut == MacTableStore.NO_PORT) return;
+				PortNumber nextPort = PortNumber.portNumber( nextOut );
+				installRule( next.deviceId(), src, dst, nextPort );
+				next = tree.neighbor( next.deviceId(), nextPort );
+			}
+		}
+
+		private void installRule( DeviceId deviceId, MacAddress src, MacAddress dst, PortNumber outputPort ){
+			//rule already on its way to the switch
+			long ruleSrc = dst_only ? MacTableStore.NO_PORT : src.toLong();
+			if (!pending_install.tryMark( deviceId, ruleSrc, dst.toLong() )) return;
 
 			//install flow rule
+			Builder selector = DefaultTrafficSelector.builder().matchEthDst(dst);
+			if (!dst_only) selector.matchEthSrc(src);
 			FlowRule flowRule = DefaultFlowRule.builder()
-			.withSelector	( DefaultTrafficSelector.builder().matchEthDst(dst).matchEthSrc(src).build() )
+			.withSelector	( selector.build() )
 			.withTreatment	( DefaultTrafficTreatment.builder().setOutput(outputPort).build() )
 			.withPriority	( priority )
 			.withIdleTimeout( idel_time )
-			.forDevice	( cp.deviceId() )
+			.forDevice	( deviceId )
 			.fromApp	( appId )
 			.build		();
 
-			flowRuleService.applyFlowRules( flowRule );
-			return;
+			pending_install.bind( deviceId, ruleSrc, dst.toLong(), flowRule );
+			rule_index.add( dst.toLong(), flowRule );
+			batcher.add( flowRule );
+		}
+
+		//a MAC showed up on another port: drop every rule forwarding to it and
+		//forget where the other devices last saw it
+		private void hostMoved( ConnectPoint cp, MacAddress mac, long oldPort ){
+			tracer.trace( PacketTracer.MOVE, cp.deviceId(), cp.port().toLong(), mac.toLong(), mac.toLong() );
+			log.debug( "{} moved from port {} to {} on {}", mac, oldPort, cp.port(), cp.deviceId() );
+			for (DeviceId deviceId : mac_table.devices()) {
+				if (!deviceId.equals( cp.deviceId() )) mac_table.remove( deviceId, mac.toLong() );
+			}
+			Set<FlowRule> stale = rule_index.removeAll( mac.toLong() );
+			if (stale.isEmpty()) return;
+			//queued rules must reach the switch before they can be removed
+			batcher.flushAll();
+			flowRuleService.removeFlowRules( stale.toArray( new FlowRule[0] ) );
+		}
+
+		//flood along the broadcast tree; false if the device is not in the tree yet
+		private boolean flood( PacketContext pc, ConnectPoint cp, MacAddress dst ){
+			//the switch already replicated it, this is only the copy for learning
+			if (tree.replicatesInDataPlane( cp.deviceId() )) return true;
+			Set<PortNumber> ports = tree.floodPorts( cp.deviceId() );
+			if (ports == null) return false;
+			TrafficTreatment.Builder treatment = DefaultTrafficTreatment.builder();
+			for (PortNumber port : ports) {
+				if (!port.equals( cp.port() )) treatment.setOutput( port );
+			}
+			packetOut( pc, treatment );
+			return true;
+		}
+
+		//the dispatcher blocked the context, so pc.send() would do nothing
+		private void packetOut( PacketContext pc, TrafficTreatment.Builder treatment ){
+			InboundPacket inPacket = pc.inPacket();
+			packetService.emit( new DefaultOutboundPacket( inPacket.receivedFrom().deviceId(), treatment.build(), inPacket.unparsed() ) );
+		}
+
+	}
+
+	private class InternalFlowRuleListener implements FlowRuleListener {
+		@Override
+		public void event( FlowRuleEvent event ){
+			FlowRule rule = event.subject();
+			if (rule.appId() != appId.id()) return;
+			if (event.type() == FlowRuleEvent.Type.RULE_ADDED || event.type() == FlowRuleEvent.Type.RULE_REMOVED) {
+				pending_install.invalidate( rule );
+			}
+			if (event.type() == FlowRuleEvent.Type.RULE_REMOVED) {
+				rule_index.remove( rule );
+			}
+		}
+	}
+
+	private class InternalTopologyListener implements TopologyListener {
+		@Override
+		public void event( TopologyEvent event ){
+			if (broadcast_tree) treeExecutor.execute( tree::update );
 		}
+	}
 
+	private class InternalEdgePortListener implements EdgePortListener {
+		@Override
+		public void event( EdgePortEvent event ){
+			if (broadcast_tree) treeExecutor.execute( tree::update );
+		}
+	}
+
+	private class InternalGroupListener implements GroupListener {
+		@Override
+		public void event( GroupEvent event ){
+			if (event.type() != GroupEvent.Type.GROUP_ADDED) return;
+			DeviceId deviceId = event.subject().deviceId();
+			if (broadcast_tree && tree.isGroupKey( event.subject().appCookie(), deviceId )) {
+				treeExecutor.execute( () -> tree.groupAdded( deviceId ) );
+			}
+		}
+	}
+
+	private class InstallContext implements FlowRuleOperationsContext {
+		@Override
+		public void onError( FlowRuleOperations ops ){
+			for (Set<FlowRuleOperation> stage : ops.stages()) {
+				for (FlowRuleOperation op : stage) {
+					pending_install.invalidate( op.rule() );
+				}
+			}
+		}
 	}
 }
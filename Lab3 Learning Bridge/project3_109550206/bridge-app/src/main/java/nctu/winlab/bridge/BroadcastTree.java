@@ -0,0 +1,361 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.MacAddress;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.GroupId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.edge.EdgePortService;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.group.DefaultGroupBucket;
+import org.onosproject.net.group.DefaultGroupDescription;
+import org.onosproject.net.group.DefaultGroupKey;
+import org.onosproject.net.group.GroupBucket;
+import org.onosproject.net.group.GroupBuckets;
+import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.group.GroupKey;
+import org.onosproject.net.group.GroupService;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyEdge;
+import org.onosproject.net.topology.TopologyGraph;
+import org.onosproject.net.topology.TopologyService;
+import org.onosproject.net.topology.TopologyVertex;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Spanning tree of the topology used to replicate broadcast and unknown
+ * unicast frames in the data plane. Every device gets an ALL group with
+ * one bucket per tree port (tree links plus edge ports). A broadcast
+ * frame, or an IPv4/ARP frame no learned rule matches, entering on a tree
+ * port goes to the group; only where it enters the tree at an edge port
+ * is a copy sent to the controller, which learns the sender along the
+ * whole tree from it ({@link #portsToward}). Such frames entering on any
+ * other port are dropped, which breaks loops. {@link #update} diffs the
+ * new tree against what is installed and only touches the devices and
+ * ports that changed.
+ */
+public class BroadcastTree {
+
+	private static final int GROUP_ID = 0xbca5;
+	private static final int DROP_PRIORITY_OFFSET = 5;
+	private static final int FORWARD_PRIORITY_OFFSET = 10;
+	/** Unknown unicast sits below the learned rules and above the reactive packet-in rules. */
+	private static final int UNKNOWN_FORWARD_PRIORITY_OFFSET = -10;
+	private static final int UNKNOWN_DROP_PRIORITY_OFFSET = -15;
+
+	private final ApplicationId appId;
+	private final int priority;
+	private final TopologyService topologyService;
+	private final EdgePortService edgePortService;
+	private final GroupService groupService;
+	private final FlowRuleService flowRuleService;
+
+	// ports in each device's group, and the flow rules that use the group once it exists
+	private final Map<DeviceId, Set<PortNumber>> groups = Maps.newConcurrentMap();
+	private final Map<DeviceId, Map<PortNumber, List<FlowRule>>> rules = Maps.newConcurrentMap();
+	private volatile Links links = new Links(ImmutableMap.of());
+
+	/** Tree links of the current tree, and the directions derived from them. */
+	private static final class Links {
+		/** The far end of each tree link, by device and local port. */
+		final Map<DeviceId, Map<PortNumber, ConnectPoint>> far;
+		/** Per root device, the port of every other device leading towards it. */
+		final Map<DeviceId, Map<DeviceId, PortNumber>> toward = Maps.newConcurrentMap();
+
+		Links(Map<DeviceId, Map<PortNumber, ConnectPoint>> far) {
+			this.far = far;
+		}
+	}
+
+	public BroadcastTree(ApplicationId appId, int priority, TopologyService topologyService,
+			EdgePortService edgePortService, GroupService groupService, FlowRuleService flowRuleService) {
+		this.appId = appId;
+		this.priority = priority;
+		this.topologyService = topologyService;
+		this.edgePortService = edgePortService;
+		this.groupService = groupService;
+		this.flowRuleService = flowRuleService;
+	}
+
+	private static GroupKey groupKey(DeviceId deviceId) {
+		return new DefaultGroupKey(("nctu.winlab.bridge/bcast/" + deviceId).getBytes());
+	}
+
+	/** Tree ports of every device: BFS over the topology graph plus edge ports; fills in the tree links. */
+	private Map<DeviceId, Set<PortNumber>> compute(Map<DeviceId, Map<PortNumber, ConnectPoint>> far) {
+		Topology topology = topologyService.currentTopology();
+		TopologyGraph graph = topologyService.getGraph(topology);
+		Map<DeviceId, Set<PortNumber>> ports = Maps.newHashMap();
+		Set<TopologyVertex> seen = Sets.newHashSet();
+
+		List<TopologyVertex> roots = Lists.newArrayList(graph.getVertexes());
+		roots.sort(Comparator.comparing(v -> v.deviceId().toString()));
+		for (TopologyVertex root : roots) {
+			if (!seen.add(root)) {
+				continue;
+			}
+			Deque<TopologyVertex> queue = new ArrayDeque<>();
+			queue.add(root);
+			ports.computeIfAbsent(root.deviceId(), d -> Sets.newHashSet());
+			while (!queue.isEmpty()) {
+				TopologyVertex v = queue.poll();
+				for (TopologyEdge e : graph.getEdgesFrom(v)) {
+					if (seen.add(e.dst())) {
+						ports.computeIfAbsent(v.deviceId(), d -> Sets.newHashSet()).add(e.link().src().port());
+						ports.computeIfAbsent(e.dst().deviceId(), d -> Sets.newHashSet()).add(e.link().dst().port());
+						far.computeIfAbsent(v.deviceId(), d -> Maps.newHashMap()).put(e.link().src().port(), e.link().dst());
+						far.computeIfAbsent(e.dst().deviceId(), d -> Maps.newHashMap()).put(e.link().dst().port(), e.link().src());
+						queue.add(e.dst());
+					}
+				}
+			}
+		}
+		for (Map.Entry<DeviceId, Set<PortNumber>> e : ports.entrySet()) {
+			for (ConnectPoint cp : edgePortService.getEdgePoints(e.getKey())) {
+				e.getValue().add(cp.port());
+			}
+		}
+		return ports;
+	}
+
+	/** Recomputes the tree and updates the devices whose tree ports changed. */
+	public synchronized void update() {
+		Map<DeviceId, Map<PortNumber, ConnectPoint>> far = Maps.newHashMap();
+		Map<DeviceId, Set<PortNumber>> want = compute(far);
+		Links oldLinks = links;
+		links = new Links(far);
+		for (DeviceId deviceId : Lists.newArrayList(groups.keySet())) {
+			if (!want.containsKey(deviceId)) {
+				remove(deviceId);
+			}
+		}
+		for (Map.Entry<DeviceId, Set<PortNumber>> e : want.entrySet()) {
+			DeviceId deviceId = e.getKey();
+			Set<PortNumber> ports = e.getValue();
+			Set<PortNumber> have = groups.get(deviceId);
+			if (have == null) {
+				groupService.addGroup(new DefaultGroupDescription(deviceId, GroupDescription.Type.ALL,
+						buckets(ports), groupKey(deviceId), GROUP_ID, appId));
+				groups.put(deviceId, ImmutableSet.copyOf(ports));
+				continue;
+			}
+			if (have.equals(ports)) {
+				//a port can stay in the tree but turn from a link into an edge port or back
+				if (rules.containsKey(deviceId) && !treeLinks(oldLinks, deviceId).equals(treeLinks(links, deviceId))) {
+					installRules(deviceId, ports);
+				}
+				continue;
+			}
+			Set<PortNumber> added = Sets.difference(ports, have);
+			Set<PortNumber> removed = Sets.difference(have, ports);
+			if (!added.isEmpty()) {
+				groupService.addBucketsToGroup(deviceId, groupKey(deviceId), buckets(added), groupKey(deviceId), appId);
+			}
+			if (!removed.isEmpty()) {
+				groupService.removeBucketsFromGroup(deviceId, groupKey(deviceId), buckets(removed), groupKey(deviceId), appId);
+			}
+			groups.put(deviceId, ImmutableSet.copyOf(ports));
+			if (rules.containsKey(deviceId)) {
+				installRules(deviceId, ports);
+			}
+		}
+	}
+
+	/** Called once the device has the group; the forwarding rules can now point at it. */
+	public synchronized void groupAdded(DeviceId deviceId) {
+		Set<PortNumber> ports = groups.get(deviceId);
+		if (ports != null) {
+			installRules(deviceId, ports);
+		}
+	}
+
+	public boolean isGroupKey(GroupKey key, DeviceId deviceId) {
+		return groupKey(deviceId).equals(key);
+	}
+
+	private static Set<PortNumber> treeLinks(Links links, DeviceId deviceId) {
+		Map<PortNumber, ConnectPoint> far = links.far.get(deviceId);
+		return far == null ? ImmutableSet.of() : far.keySet();
+	}
+
+	// adds rules for new tree ports, replaces those of ports that changed
+	// between link and edge, and removes rules of ports that left the tree
+	private void installRules(DeviceId deviceId, Set<PortNumber> ports) {
+		Map<PortNumber, List<FlowRule>> installed = rules.get(deviceId);
+		if (installed == null) {
+			installed = Maps.newConcurrentMap();
+			TrafficTreatment drop = DefaultTrafficTreatment.builder().drop().build();
+			List<FlowRule> drops = ImmutableList.of(
+				rule(deviceId, DefaultTrafficSelector.builder().matchEthDst(MacAddress.BROADCAST),
+						drop, priority + DROP_PRIORITY_OFFSET),
+				rule(deviceId, DefaultTrafficSelector.builder().matchEthType(Ethernet.TYPE_IPV4),
+						drop, priority + UNKNOWN_DROP_PRIORITY_OFFSET),
+				rule(deviceId, DefaultTrafficSelector.builder().matchEthType(Ethernet.TYPE_ARP),
+						drop, priority + UNKNOWN_DROP_PRIORITY_OFFSET));
+			installed.put(PortNumber.ANY, drops);
+			flowRuleService.applyFlowRules(drops.toArray(new FlowRule[0]));
+			rules.put(deviceId, installed);
+		}
+		Set<PortNumber> linkPorts = treeLinks(links, deviceId);
+		for (PortNumber port : ports) {
+			List<FlowRule> want = portRules(deviceId, port, !linkPorts.contains(port));
+			List<FlowRule> have = installed.get(port);
+			if (have != null && have.get(0).treatment().equals(want.get(0).treatment())) {
+				continue;
+			}
+			if (have != null) {
+				flowRuleService.removeFlowRules(have.toArray(new FlowRule[0]));
+			}
+			installed.put(port, want);
+			flowRuleService.applyFlowRules(want.toArray(new FlowRule[0]));
+		}
+		for (PortNumber port : Lists.newArrayList(installed.keySet())) {
+			if (!port.equals(PortNumber.ANY) && !ports.contains(port)) {
+				flowRuleService.removeFlowRules(installed.remove(port).toArray(new FlowRule[0]));
+			}
+		}
+	}
+
+	// Frames entering on a tree port go to the group. Only an edge port also
+	// copies them to the controller: further along the tree the frame would
+	// only tell it what the ingress copy already did.
+	private List<FlowRule> portRules(DeviceId deviceId, PortNumber port, boolean edge) {
+		TrafficTreatment.Builder treatment = DefaultTrafficTreatment.builder().group(new GroupId(GROUP_ID));
+		if (edge) {
+			treatment.setOutput(PortNumber.CONTROLLER);
+		}
+		TrafficTreatment t = treatment.build();
+		return ImmutableList.of(
+			rule(deviceId, DefaultTrafficSelector.builder().matchInPort(port).matchEthDst(MacAddress.BROADCAST),
+					t, priority + FORWARD_PRIORITY_OFFSET),
+			rule(deviceId, DefaultTrafficSelector.builder().matchInPort(port).matchEthType(Ethernet.TYPE_IPV4),
+					t, priority + UNKNOWN_FORWARD_PRIORITY_OFFSET),
+			rule(deviceId, DefaultTrafficSelector.builder().matchInPort(port).matchEthType(Ethernet.TYPE_ARP),
+					t, priority + UNKNOWN_FORWARD_PRIORITY_OFFSET));
+	}
+
+	private FlowRule rule(DeviceId deviceId, TrafficSelector.Builder selector, TrafficTreatment treatment, int rulePriority) {
+		return DefaultFlowRule.builder()
+			.withSelector(selector.build())
+			.withTreatment(treatment)
+			.withPriority(rulePriority)
+			.makePermanent()
+			.forDevice(deviceId)
+			.fromApp(appId)
+			.build();
+	}
+
+	private void remove(DeviceId deviceId) {
+		Map<PortNumber, List<FlowRule>> installed = rules.remove(deviceId);
+		if (installed != null) {
+			for (List<FlowRule> r : installed.values()) {
+				flowRuleService.removeFlowRules(r.toArray(new FlowRule[0]));
+			}
+		}
+		groups.remove(deviceId);
+		groupService.removeGroup(deviceId, groupKey(deviceId), appId);
+	}
+
+	private static GroupBuckets buckets(Collection<PortNumber> ports) {
+		List<GroupBucket> buckets = Lists.newArrayList();
+		for (PortNumber port : ports) {
+			buckets.add(DefaultGroupBucket.createAllGroupBucket(DefaultTrafficTreatment.builder().setOutput(port).build()));
+		}
+		return new GroupBuckets(buckets);
+	}
+
+	/**
+	 * Tree ports of a device, or null if the device is not in the tree yet.
+	 */
+	public Set<PortNumber> floodPorts(DeviceId deviceId) {
+		return groups.get(deviceId);
+	}
+
+	/** True once broadcast and unknown unicast frames on this device are replicated by its group. */
+	public boolean replicatesInDataPlane(DeviceId deviceId) {
+		return rules.containsKey(deviceId);
+	}
+
+	/** True if the port is in the tree and is not a tree link, i.e. where frames enter the tree. */
+	public boolean isEdge(ConnectPoint cp) {
+		Set<PortNumber> ports = groups.get(cp.deviceId());
+		return ports != null && ports.contains(cp.port()) && !treeLinks(links, cp.deviceId()).contains(cp.port());
+	}
+
+	/** The far end of the tree link on a port, or null if the port is not a tree link. */
+	public ConnectPoint neighbor(DeviceId deviceId, PortNumber port) {
+		Map<PortNumber, ConnectPoint> far = links.far.get(deviceId);
+		return far == null ? null : far.get(port);
+	}
+
+	/**
+	 * For every other device of the root's tree, the tree port leading
+	 * towards the root: where a frame flooded from the root arrives.
+	 */
+	public Map<DeviceId, PortNumber> portsToward(DeviceId root) {
+		Links l = links;
+		return l.toward.computeIfAbsent(root, r -> {
+			Map<DeviceId, PortNumber> toward = Maps.newHashMap();
+			Deque<DeviceId> queue = new ArrayDeque<>();
+			queue.add(r);
+			while (!queue.isEmpty()) {
+				DeviceId d = queue.poll();
+				Map<PortNumber, ConnectPoint> far = l.far.get(d);
+				if (far == null) {
+					continue;
+				}
+				for (ConnectPoint next : far.values()) {
+					if (!next.deviceId().equals(r) && toward.putIfAbsent(next.deviceId(), next.port()) == null) {
+						queue.add(next.deviceId());
+					}
+				}
+			}
+			return ImmutableMap.copyOf(toward);
+		});
+	}
+
+	/** Removes every group and rule of the tree. */
+	public synchronized void clear() {
+		for (DeviceId deviceId : Lists.newArrayList(groups.keySet())) {
+			remove(deviceId);
+		}
+		links = new Links(ImmutableMap.of());
+	}
+}
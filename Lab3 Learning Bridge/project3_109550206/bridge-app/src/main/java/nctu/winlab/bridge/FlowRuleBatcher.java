@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
+import org.onosproject.net.flow.FlowRuleService;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces flow rules per device and installs them as one
+ * {@link FlowRuleOperations} batch once {@code batchSize} rules are
+ * pending or the oldest pending rule has waited {@code maxDelay} ms.
+ * The outcome of every batch is reported to the given context.
+ */
+public class FlowRuleBatcher {
+
+	private final FlowRuleService flowRuleService;
+	private final ScheduledExecutorService timer;
+	private final FlowRuleOperationsContext context;
+	private final Map<DeviceId, Pending> pending = Maps.newConcurrentMap();
+	private final LongAdder applied = new LongAdder();
+
+	private volatile int batchSize;
+	private volatile int maxDelay;
+
+	/** Rules per flushed batch. */
+	public final Histogram batchSizes = new Histogram("rule batch size", "rules");
+	/** Time from the first rule of a batch being queued to the batch being applied. */
+	public final Histogram flushLatency = new Histogram("rule flush latency", "us");
+
+	private static class Pending {
+		List<FlowRule> rules = Lists.newArrayList();
+		long firstQueued;
+		long generation;
+	}
+
+	public FlowRuleBatcher(FlowRuleService flowRuleService, ScheduledExecutorService timer,
+			FlowRuleOperationsContext context, int batchSize, int maxDelay) {
+		this.flowRuleService = flowRuleService;
+		this.timer = timer;
+		this.context = context;
+		configure(batchSize, maxDelay);
+	}
+
+	public void configure(int batchSize, int maxDelay) {
+		this.batchSize = Math.max(batchSize, 1);
+		this.maxDelay = Math.max(maxDelay, 0);
+	}
+
+	/** Queues a rule for installation on its device. */
+	public void add(FlowRule rule) {
+		DeviceId deviceId = rule.deviceId();
+		Pending p = pending.computeIfAbsent(deviceId, d -> new Pending());
+		List<FlowRule> full = null;
+		long first = 0;
+		long generation = 0;
+		boolean schedule = false;
+		synchronized (p) {
+			if (p.rules.isEmpty()) {
+				p.firstQueued = System.nanoTime();
+				schedule = true;
+			}
+			p.rules.add(rule);
+			generation = p.generation;
+			if (p.rules.size() >= batchSize || maxDelay == 0) {
+				full = p.rules;
+				first = p.firstQueued;
+				p.rules = Lists.newArrayList();
+				p.generation++;
+				schedule = false;
+			}
+		}
+		if (full != null) {
+			apply(full, first);
+		} else if (schedule) {
+			long g = generation;
+			timer.schedule(() -> flush(deviceId, g), maxDelay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	// flushes the batch of a device unless it was already flushed by size
+	private void flush(DeviceId deviceId, long generation) {
+		Pending p = pending.get(deviceId);
+		if (p == null) {
+			return;
+		}
+		List<FlowRule> rules;
+		long first;
+		synchronized (p) {
+			if (p.generation != generation || p.rules.isEmpty()) {
+				return;
+			}
+			rules = p.rules;
+			first = p.firstQueued;
+			p.rules = Lists.newArrayList();
+			p.generation++;
+		}
+		apply(rules, first);
+	}
+
+	/** Installs everything still pending. */
+	public void flushAll() {
+		for (Map.Entry<DeviceId, Pending> e : pending.entrySet()) {
+			long generation;
+			synchronized (e.getValue()) {
+				generation = e.getValue().generation;
+			}
+			flush(e.getKey(), generation);
+		}
+	}
+
+	/** Number of rules handed to the FlowRuleService so far. */
+	public long applied() {
+		return applied.sum();
+	}
+
+	/** Drops everything still pending. */
+	public void clear() {
+		pending.clear();
+	}
+
+	private void apply(List<FlowRule> rules, long firstQueued) {
+		FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+		for (FlowRule rule : rules) {
+			ops.add(rule);
+		}
+		flowRuleService.apply(ops.build(context));
+		applied.add(rules.size());
+		batchSizes.record(rules.size());
+		flushLatency.record((System.nanoTime() - firstQueued) / 1000);
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.EthCriterion;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reverse index from a destination MAC to the forwarding rules, on any
+ * device, that send traffic towards it. Lets a host move remove exactly
+ * the stale rules without scanning the flow tables.
+ */
+public class FlowRuleIndex {
+
+	private final Map<Long, Set<FlowRule>> byDst = Maps.newConcurrentMap();
+
+	private static long dstOf(FlowRule rule) {
+		Criterion c = rule.selector().getCriterion(Criterion.Type.ETH_DST);
+		return c == null ? -1L : ((EthCriterion) c).mac().toLong();
+	}
+
+	public void add(long dst, FlowRule rule) {
+		byDst.computeIfAbsent(dst, k -> Sets.newConcurrentHashSet()).add(rule);
+	}
+
+	/** Unindexes a rule that left the switch. */
+	public void remove(FlowRule rule) {
+		long dst = dstOf(rule);
+		byDst.computeIfPresent(dst, (k, rules) -> {
+			rules.remove(rule);
+			return rules.isEmpty() ? null : rules;
+		});
+	}
+
+	/** Unindexes and returns every rule forwarding to a MAC. */
+	public Set<FlowRule> removeAll(long dst) {
+		Set<FlowRule> rules = byDst.remove(dst);
+		return rules == null ? Collections.emptySet() : rules;
+	}
+
+	public int size() {
+		return byDst.size();
+	}
+
+	public void clear() {
+		byDst.clear();
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Open-addressing (linear probing) MAC to port table of one device.
+ * Every slot is two longs, the 48-bit MAC tagged with {@link #USED} and
+ * a value packing the 32-bit port, a CLOCK reference bit and the 31-bit
+ * last-seen second, kept either in a heap long[] or in a direct buffer.
+ *
+ * The table is 16 B per slot at a load of at most 0.75, in a fixed
+ * number of objects however many hosts it holds. MacTableFootprint in
+ * the benchmark module measures it against the
+ * {@code ConcurrentMap<MacAddress, PortNumber>} it replaced.
+ *
+ * Once {@code maxSize} entries are held a new MAC evicts an old one
+ * chosen by the CLOCK hand; entries not seen for the aging time are
+ * removed by {@link #sweep}, a bounded number of slots per call.
+ */
+public class LongMacTable {
+
+	private static final long USED = 1L << 63;
+	private static final long MAC_MASK = 0xFFFFFFFFFFFFL;
+	private static final long REF = 1L << 31;
+	private static final long SEEN_MASK = REF - 1;
+	private static final int MIN_CAPACITY = 16;
+	private static final int SWEEP_CHUNK = 512;
+
+	private final boolean offHeap;
+	private LongBuffer slots;
+	private int mask;
+	private int size;
+	private int maxSize;
+	private int hand;
+	private int cursor;
+	private long evictions;
+
+	public LongMacTable(int expected, int maxSize, boolean offHeap) {
+		this.offHeap = offHeap;
+		this.maxSize = maxSize;
+		allocate(capacityFor(Math.min(expected, maxSize)));
+	}
+
+	private static int capacityFor(int entries) {
+		int capacity = MIN_CAPACITY;
+		while (capacity * 3 / 4 < entries) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private void allocate(int capacity) {
+		if (offHeap) {
+			slots = ByteBuffer.allocateDirect(capacity * 16).order(ByteOrder.nativeOrder()).asLongBuffer();
+		} else {
+			slots = LongBuffer.wrap(new long[capacity * 2]);
+		}
+		mask = capacity - 1;
+		size = 0;
+		hand = 0;
+		cursor = 0;
+	}
+
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	private int indexOf(long key) {
+		int i = hash(key) & mask;
+		while (true) {
+			long k = slots.get(i << 1);
+			if (k == key || k == 0) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	private static long pack(long port, int now) {
+		return (port << 32) | REF | (now & SEEN_MASK);
+	}
+
+	private static long port(long value) {
+		return value >>> 32;
+	}
+
+	/** Returns the port learned for a MAC, or {@code missing}. */
+	public synchronized long get(long mac, long missing) {
+		int i = indexOf((mac & MAC_MASK) | USED);
+		if (slots.get(i << 1) == 0) {
+			return missing;
+		}
+		long value = slots.get((i << 1) + 1);
+		if ((value & REF) == 0) {
+			slots.put((i << 1) + 1, value | REF);
+		}
+		return port(value);
+	}
+
+	/**
+	 * Learns a MAC on a port at second {@code now}.
+	 * Returns the previously learned port, or {@code missing}.
+	 */
+	public synchronized long put(long mac, long port, int now, long missing) {
+		long key = (mac & MAC_MASK) | USED;
+		int i = indexOf(key);
+		if (slots.get(i << 1) == key) {
+			long old = slots.get((i << 1) + 1);
+			slots.put((i << 1) + 1, pack(port, now));
+			return port(old);
+		}
+		if (size >= maxSize) {
+			evictOne();
+			i = indexOf(key);
+		}
+		slots.put(i << 1, key);
+		slots.put((i << 1) + 1, pack(port, now));
+		if (++size > (mask + 1) * 3 / 4) {
+			rehash((mask + 1) << 1);
+		}
+		return missing;
+	}
+
+	/** Forgets a MAC and returns the port it was learned on, or {@code missing}. */
+	public synchronized long remove(long mac, long missing) {
+		int i = indexOf((mac & MAC_MASK) | USED);
+		if (slots.get(i << 1) == 0) {
+			return missing;
+		}
+		long old = slots.get((i << 1) + 1);
+		delete(i);
+		return port(old);
+	}
+
+	// CLOCK: give referenced entries a second chance, evict the first unreferenced one.
+	private void evictOne() {
+		while (true) {
+			hand = hand & mask;
+			long key = slots.get(hand << 1);
+			if (key != 0) {
+				long value = slots.get((hand << 1) + 1);
+				if ((value & REF) == 0) {
+					delete(hand);
+					evictions++;
+					return;
+				}
+				slots.put((hand << 1) + 1, value & ~REF);
+			}
+			hand++;
+		}
+	}
+
+	// Backward-shift deletion keeps probe chains intact without tombstones.
+	private void delete(int i) {
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			long k = slots.get(j << 1);
+			if (k == 0) {
+				break;
+			}
+			int home = hash(k) & mask;
+			boolean inRange = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+			if (!inRange) {
+				slots.put(i << 1, k);
+				slots.put((i << 1) + 1, slots.get((j << 1) + 1));
+				i = j;
+			}
+		}
+		slots.put(i << 1, 0);
+		slots.put((i << 1) + 1, 0);
+		size--;
+	}
+
+	private void rehash(int capacity) {
+		LongBuffer old = slots;
+		int oldCapacity = mask + 1;
+		allocate(capacity);
+		for (int i = 0; i < oldCapacity; i++) {
+			long k = old.get(i << 1);
+			if (k != 0) {
+				int j = indexOf(k);
+				slots.put(j << 1, k);
+				slots.put((j << 1) + 1, old.get((i << 1) + 1));
+				size++;
+			}
+		}
+	}
+
+	/**
+	 * Ages out entries last seen {@code agingTime} or more seconds before
+	 * {@code now}, and trims the table down to its size cap. Scans enough
+	 * slots for one full pass per aging interval when called once a second,
+	 * taking the lock for at most {@value #SWEEP_CHUNK} slots at a time.
+	 *
+	 * @return number of entries removed
+	 */
+	public int sweep(int now, int agingTime) {
+		int removed = 0;
+		int budget;
+		synchronized (this) {
+			budget = (mask + 1) / Math.max(agingTime, 1) + 1;
+		}
+		while (budget > 0) {
+			synchronized (this) {
+				int n = Math.min(budget, Math.min(SWEEP_CHUNK, mask + 1));
+				budget -= n;
+				for (int scanned = 0; scanned < n; scanned++) {
+					cursor = cursor & mask;
+					long key = slots.get(cursor << 1);
+					if (key != 0) {
+						int seen = (int) (slots.get((cursor << 1) + 1) & SEEN_MASK);
+						if (((now - seen) & SEEN_MASK) >= agingTime) {
+							// the next chain entry may shift into this slot
+							delete(cursor);
+							removed++;
+							continue;
+						}
+					}
+					cursor++;
+				}
+				while (size > maxSize) {
+					evictOne();
+					removed++;
+				}
+			}
+		}
+		return removed;
+	}
+
+	public synchronized void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	public synchronized void clear() {
+		for (int i = 0; i <= mask; i++) {
+			slots.put(i << 1, 0);
+		}
+		size = 0;
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.onosproject.net.DeviceId;
+
+import java.util.Set;
+
+/**
+ * Per-device MAC table of the learning bridge.
+ * MAC addresses and port numbers are passed as primitive longs
+ * ({@code MacAddress.toLong()}, {@code PortNumber.toLong()}) so that
+ * implementations can learn and look up without allocating.
+ */
+public interface MacTableStore {
+
+	/** Returned by {@link #lookup} and {@link #learn} when the MAC is unknown. */
+	long NO_PORT = -1L;
+
+	/**
+	 * Records that a MAC was seen on a port of a device.
+	 *
+	 * @return the port the MAC was previously learned on, or {@link #NO_PORT}
+	 */
+	long learn(DeviceId deviceId, long mac, long port);
+
+	/**
+	 * Returns the port a MAC was learned on, or {@link #NO_PORT}.
+	 */
+	long lookup(DeviceId deviceId, long mac);
+
+	/**
+	 * Forgets a MAC on a device.
+	 *
+	 * @return the port the MAC was learned on, or {@link #NO_PORT}
+	 */
+	long remove(DeviceId deviceId, long mac);
+
+	/** Devices that have a MAC table. */
+	Set<DeviceId> devices();
+
+	/** Number of MACs learned on a device. */
+	int size(DeviceId deviceId);
+
+	/** Number of MACs a device's full table has evicted to make room. */
+	long evictions(DeviceId deviceId);
+
+	/**
+	 * Sets the aging time in seconds and the per-device entry cap.
+	 */
+	void configure(int agingTime, int maxPerDevice);
+
+	/**
+	 * Ages out a slice of every device table; meant to be called once a
+	 * second from a background thread.
+	 *
+	 * @return number of entries removed
+	 */
+	int sweep();
+
+	/** Forgets every learned MAC. */
+	void clear();
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+/**
+ * Constants for default values of configurable properties.
+ */
+public final class OsgiPropertyConstants {
+
+	private OsgiPropertyConstants() {
+	}
+
+	public static final String MAC_AGING_TIME = "macAgingTime";
+	public static final int MAC_AGING_TIME_DEFAULT = 30;
+
+	public static final String MAC_TABLE_CAPACITY = "macTableCapacity";
+	public static final int MAC_TABLE_CAPACITY_DEFAULT = 8192;
+
+	public static final String MAC_TABLE_OFF_HEAP = "macTableOffHeap";
+	public static final boolean MAC_TABLE_OFF_HEAP_DEFAULT = false;
+
+	public static final String FULL_TRACING = "fullTracing";
+	public static final boolean FULL_TRACING_DEFAULT = false;
+
+	public static final String TRACE_SAMPLE_RATE = "traceSampleRate";
+	public static final int TRACE_SAMPLE_RATE_DEFAULT = 64;
+
+	public static final String RULE_BATCH_SIZE = "ruleBatchSize";
+	public static final int RULE_BATCH_SIZE_DEFAULT = 32;
+
+	public static final String RULE_BATCH_DELAY = "ruleBatchDelay";
+	public static final int RULE_BATCH_DELAY_DEFAULT = 10;
+
+	public static final String FORWARDING_MODE = "forwardingMode";
+	public static final String FORWARDING_MODE_SRC_DST = "srcDst";
+	public static final String FORWARDING_MODE_DST_ONLY = "dstOnly";
+	public static final String FORWARDING_MODE_DEFAULT = FORWARDING_MODE_SRC_DST;
+
+	public static final String BROADCAST_TREE = "broadcastTree";
+	public static final boolean BROADCAST_TREE_DEFAULT = false;
+
+	public static final String PACKET_WORKERS = "packetWorkers";
+	public static final int PACKET_WORKERS_DEFAULT = 0;
+
+	public static final String PACKET_QUEUE_SIZE = "packetQueueSize";
+	public static final int PACKET_QUEUE_SIZE_DEFAULT = 1024;
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import com.google.common.collect.Lists;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Packet-in decision tracing without per-packet logging.
+ * Every decision bumps a lock-free counter; one in {@code sampleRate}
+ * decisions (all of them with full tracing on) is also written to a
+ * ring buffer of recent decisions that {@link #dump} renders on demand.
+ * Ring slots are overwritten without locking. A slot's kind is published
+ * last, so a dumped row holds at least the fields of the trace that wrote
+ * its kind, but a slot overwritten during the dump may still mix two.
+ */
+public class PacketTracer {
+
+	public static final int HIT = 0;
+	public static final int MISS = 1;
+	public static final int BROADCAST = 2;
+	public static final int MOVE = 3;
+	private static final String[] NAMES = { "HIT", "MISS", "BROADCAST", "MOVE" };
+
+	private final LongAdder[] counters = new LongAdder[NAMES.length];
+	private final AtomicLong next = new AtomicLong();
+	private final int mask;
+	private final long[] times;
+	/** Kind of each slot's trace, -1 until its first trace is complete. */
+	private final AtomicIntegerArray kinds;
+	private final DeviceId[] devices;
+	private final long[] ports;
+	private final long[] srcs;
+	private final long[] dsts;
+
+	private volatile boolean fullTracing;
+	private volatile int sampleRate;
+
+	/**
+	 * @param size ring buffer size, rounded up to a power of two
+	 */
+	public PacketTracer(int size, int sampleRate) {
+		int capacity = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+		mask = capacity - 1;
+		times = new long[capacity];
+		kinds = new AtomicIntegerArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			kinds.set(i, -1);
+		}
+		devices = new DeviceId[capacity];
+		ports = new long[capacity];
+		srcs = new long[capacity];
+		dsts = new long[capacity];
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] = new LongAdder();
+		}
+		setSampleRate(sampleRate);
+	}
+
+	public void setFullTracing(boolean fullTracing) {
+		this.fullTracing = fullTracing;
+	}
+
+	public void setSampleRate(int sampleRate) {
+		this.sampleRate = Math.max(sampleRate, 1);
+	}
+
+	/** Counts a decision and samples it into the ring. */
+	public void trace(int kind, DeviceId device, long port, long src, long dst) {
+		counters[kind].increment();
+		int rate = sampleRate;
+		if (!fullTracing && rate > 1 && ThreadLocalRandom.current().nextInt(rate) != 0) {
+			return;
+		}
+		int i = (int) next.getAndIncrement() & mask;
+		times[i] = System.currentTimeMillis();
+		devices[i] = device;
+		ports[i] = port;
+		srcs[i] = src;
+		dsts[i] = dst;
+		kinds.lazySet(i, kind);
+	}
+
+	public long count(int kind) {
+		return counters[kind].sum();
+	}
+
+	/** Renders the counters followed by the recorded decisions, oldest first. */
+	public List<String> dump() {
+		List<String> lines = Lists.newArrayList();
+		StringBuilder sb = new StringBuilder("counters:");
+		for (int k = 0; k < NAMES.length; k++) {
+			sb.append(' ').append(NAMES[k]).append('=').append(counters[k].sum());
+		}
+		lines.add(sb.toString());
+		long end = next.get();
+		for (long n = Math.max(0, end - mask - 1); n < end; n++) {
+			int i = (int) n & mask;
+			int kind = kinds.get(i);
+			if (kind < 0) {
+				continue;
+			}
+			lines.add(String.format("%tT.%<tL %-9s %s/%d %s -> %s", times[i], NAMES[kind], devices[i], ports[i],
+					MacAddress.valueOf(srcs[i]), MacAddress.valueOf(dsts[i])));
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import com.google.common.collect.Maps;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Flow rules that were sent to a switch but not yet confirmed, keyed by
+ * (device, eth_src, eth_dst). While an entry is pending, further packet-ins
+ * of the same pair are only forwarded, not answered with another rule.
+ * Entries are dropped when the rule is reported added or failed, or after
+ * {@code timeout} ms as a safety net for lost notifications.
+ */
+public class PendingInstallCache {
+
+	private final Map<Key, Long> deadlines = Maps.newConcurrentMap();
+	private final Map<Long, Key> byRuleId = Maps.newConcurrentMap();
+	private final long timeout;
+
+	private static final class Key {
+		final DeviceId deviceId;
+		final long src;
+		final long dst;
+
+		Key(DeviceId deviceId, long src, long dst) {
+			this.deviceId = deviceId;
+			this.src = src;
+			this.dst = dst;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return src == k.src && dst == k.dst && deviceId.equals(k.deviceId);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(deviceId, src, dst);
+		}
+	}
+
+	public PendingInstallCache(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Marks a (device, src, dst) rule as being installed.
+	 *
+	 * @return false if an unexpired install for it is already pending
+	 */
+	public boolean tryMark(DeviceId deviceId, long src, long dst) {
+		Key key = new Key(deviceId, src, dst);
+		long now = System.currentTimeMillis();
+		Long deadline = deadlines.putIfAbsent(key, now + timeout);
+		if (deadline == null) {
+			return true;
+		}
+		return deadline < now && deadlines.replace(key, deadline, now + timeout);
+	}
+
+	/** Associates a marked pair with the rule installed for it. */
+	public void bind(DeviceId deviceId, long src, long dst, FlowRule rule) {
+		byRuleId.put(rule.id().value(), new Key(deviceId, src, dst));
+	}
+
+	/** Drops the entry of a rule that was added, removed or failed. */
+	public void invalidate(FlowRule rule) {
+		Key key = byRuleId.remove(rule.id().value());
+		if (key != null) {
+			deadlines.remove(key);
+		}
+	}
+
+	/** Drops every entry whose deadline has passed. */
+	public void expire() {
+		long now = System.currentTimeMillis();
+		deadlines.entrySet().removeIf(e -> e.getValue() < now);
+		byRuleId.values().removeIf(k -> !deadlines.containsKey(k));
+	}
+
+	public int size() {
+		return deadlines.size();
+	}
+
+	public void clear() {
+		deadlines.clear();
+		byRuleId.clear();
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import com.google.common.collect.Maps;
+
+import org.onosproject.net.DeviceId;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Default {@link MacTableStore}: one {@link LongMacTable} per device.
+ * Last-seen times are whole seconds since the store was created.
+ */
+public class PrimitiveMacTableStore implements MacTableStore {
+
+	private static final int INITIAL_HOSTS = 64;
+
+	private final Map<DeviceId, LongMacTable> tables = Maps.newConcurrentMap();
+	private final boolean offHeap;
+	private final long base = System.nanoTime();
+	private volatile int agingTime;
+	private volatile int maxPerDevice;
+
+	public PrimitiveMacTableStore(boolean offHeap, int agingTime, int maxPerDevice) {
+		this.offHeap = offHeap;
+		this.agingTime = agingTime;
+		this.maxPerDevice = maxPerDevice;
+	}
+
+	private int now() {
+		return (int) ((System.nanoTime() - base) / 1_000_000_000L);
+	}
+
+	private LongMacTable table(DeviceId deviceId) {
+		LongMacTable table = tables.get(deviceId);
+		if (table == null) {
+			table = tables.computeIfAbsent(deviceId, d -> new LongMacTable(INITIAL_HOSTS, maxPerDevice, offHeap));
+		}
+		return table;
+	}
+
+	@Override
+	public long learn(DeviceId deviceId, long mac, long port) {
+		return table(deviceId).put(mac, port, now(), NO_PORT);
+	}
+
+	@Override
+	public long lookup(DeviceId deviceId, long mac) {
+		LongMacTable table = tables.get(deviceId);
+		return table == null ? NO_PORT : table.get(mac, NO_PORT);
+	}
+
+	@Override
+	public long remove(DeviceId deviceId, long mac) {
+		LongMacTable table = tables.get(deviceId);
+		return table == null ? NO_PORT : table.remove(mac, NO_PORT);
+	}
+
+	@Override
+	public Set<DeviceId> devices() {
+		return tables.keySet();
+	}
+
+	@Override
+	public int size(DeviceId deviceId) {
+		LongMacTable table = tables.get(deviceId);
+		return table == null ? 0 : table.size();
+	}
+
+	@Override
+	public long evictions(DeviceId deviceId) {
+		LongMacTable table = tables.get(deviceId);
+		return table == null ? 0 : table.evictions();
+	}
+
+	@Override
+	public void configure(int agingTime, int maxPerDevice) {
+		this.agingTime = agingTime;
+		this.maxPerDevice = maxPerDevice;
+		for (LongMacTable table : tables.values()) {
+			table.setMaxSize(maxPerDevice);
+		}
+	}
+
+	@Override
+	public int sweep() {
+		int removed = 0;
+		int now = now();
+		for (LongMacTable table : tables.values()) {
+			removed += table.sweep(now, agingTime);
+		}
+		return removed;
+	}
+
+	@Override
+	public void clear() {
+		tables.clear();
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge.cli;
+
+import nctu.winlab.bridge.BridgeTraceService;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onosproject.cli.AbstractShellCommand;
+
+/**
+ * Prints the packet-in trace and counters of the learning bridge.
+ */
+@Service
+@Command(scope = "onos", name = "bridge-trace",
+		description = "Prints the packet-in trace and counters of the learning bridge")
+public class BridgeTraceCommand extends AbstractShellCommand {
+
+	@Override
+	protected void doExecute() {
+		for (String line : get(BridgeTraceService.class).traceDump()) {
+			print("%s", line);
+		}
+	}
+}
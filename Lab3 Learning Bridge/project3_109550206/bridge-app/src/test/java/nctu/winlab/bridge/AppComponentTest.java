@@ -15,37 +15,265 @@
  */
 package nctu.winlab.bridge;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
-import org.onosproject.cfg.ComponentConfigService;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.MacAddress;
 import org.onosproject.cfg.ComponentConfigAdapter;
-import org.onosproject.cfg.ConfigProperty;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreService;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.edge.EdgePortService;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperation;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.EthCriterion;
+import org.onosproject.net.flow.instructions.Instruction;
+import org.onosproject.net.flow.instructions.Instructions;
+import org.onosproject.net.group.GroupService;
+import org.onosproject.net.packet.DefaultInboundPacket;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.OutboundPacket;
+import org.onosproject.net.packet.PacketContext;
+import org.onosproject.net.packet.PacketService;
+import org.onosproject.net.topology.TopologyService;
 
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 /**
- * Set of tests of the ONOS application component.
+ * Set of tests of the ONOS application component. The ONOS services are
+ * dynamic proxies that record the calls made to them and what they are
+ * handed, and answer with empty values.
  */
 public class AppComponentTest {
 
+    private static final ApplicationId APP_ID = new DefaultApplicationId(1, "nctu.winlab.bridge");
+    private static final DeviceId S1 = DeviceId.deviceId("of:0000000000000001");
+    private static final ConnectPoint H1_PORT = new ConnectPoint(S1, PortNumber.portNumber(1));
+    private static final ConnectPoint H2_PORT = new ConnectPoint(S1, PortNumber.portNumber(2));
+    private static final ConnectPoint H1_NEW_PORT = new ConnectPoint(S1, PortNumber.portNumber(3));
+    private static final MacAddress H1 = MacAddress.valueOf("02:00:00:00:00:01");
+    private static final MacAddress H2 = MacAddress.valueOf("02:00:00:00:00:02");
+
     private AppComponent component;
 
+    /** Calls made to the stubbed services, as "Service.method". */
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+    private final List<OutboundPacket> emitted = new ArrayList<>();
+    /** Rules added through the stubbed flow rule service; batches are applied on a timer thread. */
+    private final List<FlowRule> applied = Collections.synchronizedList(new ArrayList<>());
+    private final List<FlowRule> removed = new ArrayList<>();
+    /** Packet the stubbed packet context carries. */
+    private InboundPacket inbound;
+
     @Before
     public void setUp() {
         component = new AppComponent();
         component.cfgService = new ComponentConfigAdapter();
-        component.activate();
+        component.coreService = stub(CoreService.class);
+        component.packetService = stub(PacketService.class);
+        component.flowRuleService = stub(FlowRuleService.class);
+        component.topologyService = stub(TopologyService.class);
+        component.eptService = stub(EdgePortService.class);
+        component.groupService = stub(GroupService.class);
+        component.activate(null);
     }
 
     @After
     public void tearDown() {
-        component.deactivate();
+        if (component != null) {
+            component.deactivate();
+        }
+    }
+
+    private <T> T stub(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return objectMethod(proxy, method, args);
+                    }
+                    calls.add(type.getSimpleName() + "." + method.getName());
+                    return answer(method, args);
+                }));
+    }
+
+    private static Object objectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "stub";
+        }
+    }
+
+    private Object answer(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "registerApplication":
+                return APP_ID;
+            case "emit":
+                emitted.add((OutboundPacket) args[0]);
+                return null;
+            case "inPacket":
+                return inbound;
+            case "apply":
+                for (Set<FlowRuleOperation> stage : ((FlowRuleOperations) args[0]).stages()) {
+                    for (FlowRuleOperation op : stage) {
+                        applied.add(op.rule());
+                    }
+                }
+                return null;
+            case "removeFlowRules":
+                removed.addAll(Arrays.asList((FlowRule[]) args[0]));
+                return null;
+            default:
+                return empty(method.getReturnType());
+        }
+    }
+
+    private static Object empty(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type.isAssignableFrom(ImmutableSet.class)) {
+            return ImmutableSet.of();
+        } else if (type.isAssignableFrom(ImmutableList.class)) {
+            return ImmutableList.of();
+        }
+        return null;
+    }
+
+    /** Hands the component an IPv4 packet-in, as its worker would. */
+    private void receive(ConnectPoint from, MacAddress src, MacAddress dst) {
+        Ethernet frame = new Ethernet()
+                .setSourceMACAddress(src)
+                .setDestinationMACAddress(dst)
+                .setEtherType(Ethernet.TYPE_IPV4);
+        frame.setPayload(new IPv4()
+                .setSourceAddress("10.0.0.1")
+                .setDestinationAddress("10.0.0.2")
+                .setProtocol(IPv4.PROTOCOL_UDP));
+        inbound = new DefaultInboundPacket(from, frame, ByteBuffer.wrap(frame.serialize()));
+        component.bridgeProcessor.actLikeSwitch(stub(PacketContext.class));
+    }
+
+    private static Set<PortNumber> outputs(OutboundPacket packet) {
+        Set<PortNumber> ports = new HashSet<>();
+        for (Instruction instruction : packet.treatment().allInstructions()) {
+            ports.add(((Instructions.OutputInstruction) instruction).port());
+        }
+        return ports;
+    }
+
+    private static MacAddress mac(FlowRule rule, Criterion.Type type) {
+        return ((EthCriterion) rule.selector().getCriterion(type)).mac();
+    }
+
+    @Test
+    public void activateRegistersAndRequestsPackets() {
+        assertTrue(calls.contains("PacketService.addProcessor"));
+        assertEquals(2, calls.stream().filter("PacketService.requestPackets"::equals).count());
+        assertTrue(calls.contains("FlowRuleService.addListener"));
+    }
+
+    @Test
+    public void unknownDestinationIsFlooded() {
+        receive(H1_PORT, H1, H2);
+        assertEquals(1, emitted.size());
+        assertEquals(S1, emitted.get(0).sendThrough());
+        assertEquals(ImmutableSet.of(PortNumber.FLOOD), outputs(emitted.get(0)));
+    }
+
+    @Test
+    public void learnedDestinationIsSentOutItsPort() {
+        receive(H1_PORT, H1, H2);
+        emitted.clear();
+        receive(H2_PORT, H2, H1);
+        assertEquals(1, emitted.size());
+        assertEquals(S1, emitted.get(0).sendThrough());
+        assertEquals(ImmutableSet.of(H1_PORT.port()), outputs(emitted.get(0)));
+    }
+
+    @Test
+    public void learnedDestinationGetsABatchedRule() {
+        receive(H1_PORT, H1, H2);
+        receive(H2_PORT, H2, H1);
+        component.batcher.flushAll();
+        assertEquals(1, applied.size());
+        FlowRule rule = applied.get(0);
+        assertEquals(S1, rule.deviceId());
+        assertEquals(H1, mac(rule, Criterion.Type.ETH_DST));
+        assertEquals(H2, mac(rule, Criterion.Type.ETH_SRC));
+        assertEquals(APP_ID.id(), rule.appId());
     }
 
     @Test
-    public void basics() {
+    public void repeatedFlowIsInstalledOnce() {
+        receive(H1_PORT, H1, H2);
+        receive(H2_PORT, H2, H1);
+        //the rule is still on its way, so the next packet-in of the flow is only forwarded
+        receive(H2_PORT, H2, H1);
+        assertEquals(3, emitted.size());
+        component.batcher.flushAll();
+        assertEquals(1, applied.size());
+    }
+
+    @Test
+    public void hostMoveRemovesTheRulesTowardIt() {
+        receive(H1_PORT, H1, H2);
+        receive(H2_PORT, H2, H1);
+        component.batcher.flushAll();
+        FlowRule toH1 = applied.get(0);
+
+        receive(H1_NEW_PORT, H1, H2);
+        assertEquals(ImmutableList.of(toH1), removed);
+        emitted.clear();
+        receive(H2_PORT, H2, H1);
+        assertEquals(ImmutableSet.of(H1_NEW_PORT.port()), outputs(emitted.get(0)));
+    }
 
+    @Test
+    public void traceDumpCountsTheRulesOfTheLearnedHosts() {
+        receive(H1_PORT, H1, H2);
+        receive(H2_PORT, H2, H1);
+        List<String> lines = component.traceDump();
+        assertTrue(lines.contains("rules on " + S1 + ": 2 hosts, dstOnly <= 2, srcDst <= 2"));
+        assertTrue(lines.get(lines.size() - 1).startsWith("rules total: dstOnly <= 2, srcDst <= 2"));
     }
 
+    @Test
+    public void deactivateStopsThePacketsBeforeRemovingTheRules() {
+        calls.clear();
+        component.deactivate();
+        component = null;
+        int processor = calls.indexOf("PacketService.removeProcessor");
+        int rules = calls.indexOf("FlowRuleService.removeFlowRulesById");
+        assertTrue(processor >= 0);
+        assertTrue(rules > processor);
+    }
 }
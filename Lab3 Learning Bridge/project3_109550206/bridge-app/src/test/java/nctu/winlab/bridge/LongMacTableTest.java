@@ -0,0 +1,180 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the open-addressing MAC table.
+ */
+public class LongMacTableTest {
+
+    private static final long NONE = -1L;
+
+    @Test
+    public void putGetRemove() {
+        LongMacTable table = new LongMacTable(16, 1024, false);
+        assertEquals(NONE, table.put(0x020000000001L, 1, 0, NONE));
+        assertEquals(1, table.get(0x020000000001L, NONE));
+        assertEquals(1, table.put(0x020000000001L, 2, 0, NONE));
+        assertEquals(2, table.get(0x020000000001L, NONE));
+        assertEquals(1, table.size());
+        assertEquals(2, table.remove(0x020000000001L, NONE));
+        assertEquals(NONE, table.get(0x020000000001L, NONE));
+        assertEquals(NONE, table.remove(0x020000000001L, NONE));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void onlyLow48BitsAreTheKey() {
+        LongMacTable table = new LongMacTable(16, 1024, false);
+        table.put(0xffff020000000001L, 7, 0, NONE);
+        assertEquals(7, table.get(0x020000000001L, NONE));
+    }
+
+    // A 16-slot table held at its load limit has long probe chains that wrap
+    // past the last slot; backward-shift deletion must keep every survivor reachable.
+    @Test
+    public void removalsKeepCollidingChainsReachable() {
+        removeAgainstReference(false);
+        removeAgainstReference(true);
+    }
+
+    private void removeAgainstReference(boolean offHeap) {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            LongMacTable table = new LongMacTable(11, 11, offHeap);
+            Map<Long, Long> expected = new HashMap<>();
+            List<Long> keys = new ArrayList<>();
+            for (int i = 0; i < 11; i++) {
+                long mac = random.nextLong() & 0xffffffffffffL;
+                table.put(mac, i, 0, NONE);
+                expected.put(mac, (long) i);
+                keys.add(mac);
+            }
+            for (int i = 0; i < 6; i++) {
+                long mac = keys.remove(random.nextInt(keys.size()));
+                assertEquals((long) expected.remove(mac), table.remove(mac, NONE));
+                for (Map.Entry<Long, Long> e : expected.entrySet()) {
+                    assertEquals((long) e.getValue(), table.get(e.getKey(), NONE));
+                }
+                assertEquals(NONE, table.get(mac, NONE));
+            }
+            assertEquals(expected.size(), table.size());
+        }
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        LongMacTable table = new LongMacTable(16, 100000, false);
+        for (long mac = 1; mac <= 10000; mac++) {
+            table.put(mac, mac % 48, 0, NONE);
+        }
+        assertEquals(10000, table.size());
+        for (long mac = 1; mac <= 10000; mac++) {
+            assertEquals(mac % 48, table.get(mac, NONE));
+        }
+    }
+
+    @Test
+    public void fullTableEvictsOneEntry() {
+        LongMacTable table = new LongMacTable(4, 4, false);
+        for (long mac = 1; mac <= 4; mac++) {
+            table.put(mac, mac, 0, NONE);
+        }
+        table.put(5, 5, 0, NONE);
+        assertEquals(4, table.size());
+        assertEquals(1, table.evictions());
+        assertEquals(5, table.get(5, NONE));
+    }
+
+    // CLOCK: the first eviction clears the reference bits of the whole table on
+    // its way round, so the next ones take the old entries and spare those
+    // learned or looked up since.
+    @Test
+    public void evictionSparesReferencedEntries() {
+        LongMacTable table = new LongMacTable(4, 4, false);
+        for (long mac = 1; mac <= 4; mac++) {
+            table.put(mac, mac, 0, NONE);
+        }
+        table.put(5, 5, 0, NONE);
+        table.put(6, 6, 0, NONE);
+        assertEquals(5, table.get(5, NONE));
+        assertEquals(6, table.get(6, NONE));
+        table.put(7, 7, 0, NONE);
+        assertEquals(5, table.get(5, NONE));
+        assertEquals(6, table.get(6, NONE));
+        assertEquals(7, table.get(7, NONE));
+        int old = 0;
+        for (long mac = 1; mac <= 4; mac++) {
+            if (table.get(mac, NONE) != NONE) {
+                old++;
+            }
+        }
+        assertEquals(1, old);
+        assertEquals(3, table.evictions());
+    }
+
+    @Test
+    public void sweepAgesOutStaleEntries() {
+        LongMacTable table = new LongMacTable(64, 1024, false);
+        for (long mac = 1; mac <= 40; mac++) {
+            table.put(mac, 1, mac <= 20 ? 100 : 125, NONE);
+        }
+        int removed = 0;
+        for (int call = 0; call < 30; call++) {
+            removed += table.sweep(130, 10);
+        }
+        assertEquals(20, removed);
+        for (long mac = 1; mac <= 40; mac++) {
+            assertEquals(mac <= 20 ? NONE : 1, table.get(mac, NONE));
+        }
+    }
+
+    // last-seen seconds are 31 bits; an entry stamped just before they wrap is
+    // still young a few seconds after
+    @Test
+    public void sweepHandlesWrappedSeconds() {
+        LongMacTable table = new LongMacTable(16, 1024, false);
+        table.put(1, 1, Integer.MAX_VALUE - 1, NONE);
+        table.put(2, 2, Integer.MAX_VALUE - 50, NONE);
+        for (int call = 0; call < 20; call++) {
+            table.sweep(3, 10);
+        }
+        assertEquals(1, table.get(1, NONE));
+        assertEquals(NONE, table.get(2, NONE));
+    }
+
+    @Test
+    public void sweepTrimsToLoweredCap() {
+        LongMacTable table = new LongMacTable(64, 64, true);
+        for (long mac = 1; mac <= 40; mac++) {
+            table.put(mac, 1, 0, NONE);
+        }
+        table.setMaxSize(10);
+        table.sweep(0, 300);
+        assertEquals(10, table.size());
+        assertEquals(30, table.evictions());
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.TpPort;
+import org.onlab.packet.UDP;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.edge.EdgePortService;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.slf4j.Logger;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * DHCP redirection rules that do not depend on the clients. The paths of
+ * all devices towards the server form a tree; on every device, DHCP
+ * requests arriving on a child or edge port go out the parent port, and
+ * DHCP replies arriving on the parent port, unicast or broadcast, go out
+ * every child and edge port; a client drops replies whose chaddr is not
+ * its own. A device needs one rule per downstream port plus one, however
+ * many clients sit behind it.
+ * <p>
+ * While the controller wants to see the handshakes, the edge ports' request
+ * rules and the server's reply rule also copy the packet to the
+ * controller; they still forward it themselves.
+ */
+public class AggregateRules {
+
+	private final ApplicationId appId;
+	private final int priority;
+	private final ServerPathCache paths;
+	private final FlowRuleService flowRuleService;
+	private final EdgePortService edgePortService;
+	private final Logger log;
+
+	/** Installed rules per device, keyed by their match. */
+	private final Map<DeviceId, Map<TrafficSelector, FlowRule>> installed = Maps.newConcurrentMap();
+	/** Ports replies go out on, per device. */
+	private volatile Map<DeviceId, Set<PortNumber>> downPorts = Collections.emptyMap();
+	/** Edge ports whose request rules copy to the controller, per device. */
+	private volatile Map<DeviceId, Set<PortNumber>> copiedRequests = Collections.emptyMap();
+	/** Port of the server whose reply rule copies to the controller, or null. */
+	private volatile ConnectPoint copiedReplies;
+
+	public AggregateRules(ApplicationId appId, int priority, ServerPathCache paths,
+			FlowRuleService flowRuleService, EdgePortService edgePortService, Logger log) {
+		this.appId = appId;
+		this.priority = priority;
+		this.paths = paths;
+		this.flowRuleService = flowRuleService;
+		this.edgePortService = edgePortService;
+		this.log = log;
+	}
+
+	/**
+	 * @return ports a DHCP reply received on the device goes out on, or null
+	 *         if the device is not in the tree yet
+	 */
+	public Set<PortNumber> downPorts(DeviceId deviceId) {
+		return downPorts.get(deviceId);
+	}
+
+	/**
+	 * @return true if the DHCP packet came up from a rule that already
+	 *         forwarded it, so it must not be relayed again
+	 */
+	public boolean isCopy(ConnectPoint cp, boolean reply) {
+		if (reply) {
+			return cp.equals(copiedReplies);
+		}
+		Set<PortNumber> ports = copiedRequests.get(cp.deviceId());
+		return ports != null && ports.contains(cp.port());
+	}
+
+	/**
+	 * Recomputes the tree and installs only the rules that changed.
+	 *
+	 * @param copy also copy the requests entering at the edge and the
+	 *        replies leaving the server to the controller
+	 */
+	public synchronized void update(Iterable<DeviceId> devices, DeviceId server, PortNumber serverPort,
+			boolean copy) {
+		Map<DeviceId, Set<PortNumber>> copied = Maps.newHashMap();
+		Map<DeviceId, PortNumber> up = Maps.newHashMap();
+		Map<DeviceId, Set<PortNumber>> down = Maps.newHashMap();
+		up.put(server, serverPort);
+		for (DeviceId deviceId : devices) {
+			if (deviceId.equals(server)) {
+				continue;
+			}
+			Path path = paths.path(deviceId, server);
+			if (path == null) {
+				continue;
+			}
+			Link first = path.links().get(0);
+			up.put(deviceId, first.src().port());
+			down.computeIfAbsent(first.dst().deviceId(), k -> Sets.newHashSet()).add(first.dst().port());
+		}
+
+		Map<DeviceId, Map<TrafficSelector, FlowRule>> wanted = Maps.newHashMap();
+		for (Map.Entry<DeviceId, PortNumber> e : up.entrySet()) {
+			DeviceId deviceId = e.getKey();
+			PortNumber parent = e.getValue();
+			Set<PortNumber> ports = down.computeIfAbsent(deviceId, k -> Sets.newHashSet());
+			Set<PortNumber> edges = Sets.newHashSet();
+			for (ConnectPoint edge : edgePortService.getEdgePoints(deviceId)) {
+				edges.add(edge.port());
+			}
+			edges.remove(parent);
+			ports.addAll(edges);
+			ports.remove(parent);
+			if (copy) {
+				copied.put(deviceId, edges);
+			}
+
+			Map<TrafficSelector, FlowRule> rules = Maps.newHashMap();
+			for (PortNumber port : ports) {
+				TrafficTreatment.Builder toParent = DefaultTrafficTreatment.builder().setOutput(parent);
+				if (copy && edges.contains(port)) {
+					toParent.punt();
+				}
+				FlowRule rule = rule(deviceId, selector(port, UDP.DHCP_CLIENT_PORT, UDP.DHCP_SERVER_PORT), toParent.build());
+				rules.put(rule.selector(), rule);
+			}
+			if (!ports.isEmpty()) {
+				TrafficTreatment.Builder flood = DefaultTrafficTreatment.builder();
+				ports.forEach(flood::setOutput);
+				if (copy && deviceId.equals(server)) {
+					flood.punt();
+				}
+				FlowRule rule = rule(deviceId, selector(parent, UDP.DHCP_SERVER_PORT, UDP.DHCP_CLIENT_PORT), flood.build());
+				rules.put(rule.selector(), rule);
+			}
+			wanted.put(deviceId, rules);
+		}
+
+		FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+		int changes = 0;
+		for (Map.Entry<DeviceId, Map<TrafficSelector, FlowRule>> e : wanted.entrySet()) {
+			Map<TrafficSelector, FlowRule> old = installed.getOrDefault(e.getKey(), Collections.emptyMap());
+			for (FlowRule rule : e.getValue().values()) {
+				FlowRule was = old.get(rule.selector());
+				if (was == null || !was.treatment().equals(rule.treatment())) {
+					ops.add(rule);
+					changes++;
+				}
+			}
+		}
+		for (Map.Entry<DeviceId, Map<TrafficSelector, FlowRule>> e : installed.entrySet()) {
+			Map<TrafficSelector, FlowRule> now = wanted.getOrDefault(e.getKey(), Collections.emptyMap());
+			for (FlowRule rule : e.getValue().values()) {
+				if (!now.containsKey(rule.selector())) {
+					ops.remove(rule);
+					changes++;
+				}
+			}
+		}
+		installed.clear();
+		installed.putAll(wanted);
+		downPorts = down;
+		copiedRequests = copied;
+		copiedReplies = copy ? new ConnectPoint(server, serverPort) : null;
+		if (changes > 0) {
+			flowRuleService.apply(ops.build(new FlowRuleOperationsContext() {
+				@Override
+				public void onError(FlowRuleOperations failed) {
+					log.warn("Failed to update aggregate DHCP rules: {}", failed);
+				}
+			}));
+		}
+		log.debug("Aggregate DHCP rules: {} devices, {} rules, {} changed", wanted.size(), size(), changes);
+	}
+
+	private TrafficSelector selector(PortNumber inPort, int udpSrc, int udpDst) {
+		return DefaultTrafficSelector.builder()
+				.matchInPort(inPort)
+				.matchEthType(Ethernet.TYPE_IPV4)
+				.matchIPProtocol(IPv4.PROTOCOL_UDP)
+				.matchUdpSrc(TpPort.tpPort(udpSrc))
+				.matchUdpDst(TpPort.tpPort(udpDst))
+				.build();
+	}
+
+	private FlowRule rule(DeviceId deviceId, TrafficSelector selector, TrafficTreatment treatment) {
+		return DefaultFlowRule.builder()
+				.withSelector(selector)
+				.withTreatment(treatment)
+				.withPriority(priority)
+				.makePermanent()
+				.forDevice(deviceId)
+				.fromApp(appId)
+				.build();
+	}
+
+	/**
+	 * Takes over an aggregate rule left on a switch by an earlier
+	 * activation, so the next update keeps or removes it like its own.
+	 *
+	 * @return false if the rule is not an aggregate rule
+	 */
+	public synchronized boolean adopt(FlowRule rule) {
+		TrafficSelector selector = rule.selector();
+		if (!rule.isPermanent() || rule.priority() != priority
+				|| selector.getCriterion(Criterion.Type.IN_PORT) == null
+				|| selector.getCriterion(Criterion.Type.UDP_SRC) == null
+				|| selector.getCriterion(Criterion.Type.UDP_DST) == null) {
+			return false;
+		}
+		installed.computeIfAbsent(rule.deviceId(), k -> Maps.newConcurrentMap()).put(selector, new DefaultFlowRule(rule));
+		return true;
+	}
+
+	/** Number of installed aggregate rules. */
+	public int size() {
+		int n = 0;
+		for (Map<TrafficSelector, FlowRule> rules : installed.values()) {
+			n += rules.size();
+		}
+		return n;
+	}
+
+	/** Removes every aggregate rule from the switches. */
+	public synchronized void clear() {
+		FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+		boolean any = false;
+		for (Map<TrafficSelector, FlowRule> rules : installed.values()) {
+			for (FlowRule rule : rules.values()) {
+				ops.remove(rule);
+				any = true;
+			}
+		}
+		installed.clear();
+		downPorts = Collections.emptyMap();
+		copiedRequests = Collections.emptyMap();
+		copiedReplies = null;
+		if (any) {
+			flowRuleService.apply(ops.build());
+		}
+	}
+}
@@ -36,27 +36,74 @@ import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Dictionary;
 import java.util.Properties;
 
 import static org.onlab.util.Tools.get;
-
+import static org.onlab.util.Tools.groupedThreads;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.PACKET_WORKERS;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.PACKET_WORKERS_DEFAULT;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.PACKET_QUEUE_SIZE;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.PACKET_QUEUE_SIZE_DEFAULT;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.PROACTIVE_PATH;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.PROACTIVE_PATH_DEFAULT;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.DHCP_RULE_MODE;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.DHCP_RULE_MODE_AGGREGATE;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.DHCP_RULE_MODE_AUTO;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.DHCP_RULE_MODE_DEFAULT;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.DHCP_RULE_MODE_PER_CLIENT;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.CLIENT_RULE_CAPACITY;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.CLIENT_RULE_CAPACITY_DEFAULT;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.CLIENT_RATE_LIMIT;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.CLIENT_RATE_LIMIT_DEFAULT;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.PORT_RATE_LIMIT;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.PORT_RATE_LIMIT_DEFAULT;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.OFFENDER_BLOCK_TIME;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.OFFENDER_BLOCK_TIME_DEFAULT;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.LEASE_SNOOPING;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.LEASE_SNOOPING_DEFAULT;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.WARM_RESTART;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.WARM_RESTART_DEFAULT;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.TRACK_TRANSACTIONS;
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.TRACK_TRANSACTIONS_DEFAULT;
+
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Optional;
-
-import com.google.common.collect.Maps;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.DefaultTrafficSelector;
 import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.flow.TrafficSelector;
 import org.onosproject.net.flow.TrafficSelector.Builder;
 import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.criteria.EthCriterion;
 import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.criteria.Criterion;
 import org.onosproject.net.flow.DefaultFlowRule;
 
 import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.DefaultOutboundPacket;
 import org.onosproject.net.packet.OutboundPacket;
 import org.onosproject.net.packet.PacketContext;
 import org.onosproject.net.packet.PacketProcessor;
@@ -70,6 +117,13 @@ import org.onosproject.net.link.LinkEvent;
 import org.onosproject.net.topology.TopologyEvent;
 import org.onosproject.net.topology.TopologyListener;
 import org.onosproject.net.topology.TopologyService;
+import org.onosproject.net.topology.TopologyVertex;
+import org.onosproject.net.edge.EdgePortService;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.Port;
+import org.onosproject.event.Event;
 
 import org.onosproject.net.ConnectPoint;
 import org.onosproject.net.DeviceId;
@@ -87,15 +141,39 @@ import org.onlab.packet.UDP;
 import org.onlab.packet.TpPort;
 import org.onlab.packet.DHCP;
 
+import java.nio.ByteBuffer;
+
 ////
 
 /**
  * Skeletal ONOS application component.
  */
-@Component(immediate = true)
-public class AppComponent{
+@Component(
+	immediate = true,
+	service = { DhcpLeaseService.class, DhcpTransactionService.class, DhcpTraceService.class },
+	property = {
+		PACKET_WORKERS + ":Integer=" + PACKET_WORKERS_DEFAULT,
+		PACKET_QUEUE_SIZE + ":Integer=" + PACKET_QUEUE_SIZE_DEFAULT,
+		PROACTIVE_PATH + ":Boolean=" + PROACTIVE_PATH_DEFAULT,
+		DHCP_RULE_MODE + "=" + DHCP_RULE_MODE_DEFAULT,
+		CLIENT_RULE_CAPACITY + ":Integer=" + CLIENT_RULE_CAPACITY_DEFAULT,
+		CLIENT_RATE_LIMIT + ":Integer=" + CLIENT_RATE_LIMIT_DEFAULT,
+		PORT_RATE_LIMIT + ":Integer=" + PORT_RATE_LIMIT_DEFAULT,
+		OFFENDER_BLOCK_TIME + ":Integer=" + OFFENDER_BLOCK_TIME_DEFAULT,
+		LEASE_SNOOPING + ":Boolean=" + LEASE_SNOOPING_DEFAULT,
+		WARM_RESTART + ":Boolean=" + WARM_RESTART_DEFAULT,
+		TRACK_TRANSACTIONS + ":Boolean=" + TRACK_TRANSACTIONS_DEFAULT,
+	}
+)
+public class AppComponent implements DhcpLeaseService, DhcpTransactionService, DhcpTraceService {
 
 	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	private static final int DISCOVER = DHCP.MsgType.DHCPDISCOVER.getValue();
+	private static final int OFFER = DHCP.MsgType.DHCPOFFER.getValue();
+	private static final int REQUEST = DHCP.MsgType.DHCPREQUEST.getValue();
+	private static final int ACK = DHCP.MsgType.DHCPACK.getValue();
+	private static final int RELEASE = DHCP.MsgType.DHCPRELEASE.getValue();
 	
 	private ApplicationId appId;
 	
@@ -107,14 +185,81 @@ public class AppComponent{
 		}
 	};
 	
-	private DhcpProcessor dhcpProcessor = new DhcpProcessor();
-	protected Map< DeviceId, Map<MacAddress, FlowRule> > ToSever_rule_table = Maps.newConcurrentMap();
-	protected Map< DeviceId, Map<MacAddress, FlowRule> > ToClient_rule_table = Maps.newConcurrentMap();
-	protected DeviceId DHCPvS;
-	protected PortNumber DHCPvSP;
+	DhcpProcessor dhcpProcessor = new DhcpProcessor();
+	private volatile PacketDispatcher dispatcher;
+	protected ServerPathCache serverPaths;
+	protected AggregateRules aggregateRules;
+	private ExecutorService pathExecutor;
+	private final InternalTopologyListener topologyListener = new InternalTopologyListener();
+	protected volatile ClientRuleTable ToSever_rule_table = new ClientRuleTable(Criterion.Type.ETH_SRC, CLIENT_RULE_CAPACITY_DEFAULT, 2 * 30);
+	protected volatile ClientRuleTable ToClient_rule_table = new ClientRuleTable(Criterion.Type.ETH_DST, CLIENT_RULE_CAPACITY_DEFAULT, 2 * 30);
+	private final InternalFlowRuleListener flowListener = new InternalFlowRuleListener();
+	protected final DhcpTransactionTracker transactions = new DhcpTransactionTracker(CLIENT_RULE_CAPACITY_DEFAULT);
+
+	/** Time the DHCP handshakes; with aggregate rules this also has the switches copy them up. */
+	private boolean track_transactions = TRACK_TRANSACTIONS_DEFAULT;
+	protected final LeaseStore leases = new LeaseStore(CLIENT_RULE_CAPACITY_DEFAULT);
+	private ScheduledExecutorService leaseExecutor;
+	protected final ServerRing serverRing = new ServerRing();
+	private final InternalDeviceListener deviceListener = new InternalDeviceListener();
 
 	private int idle_time = 30;
 	private int priority = 30;
+
+	//rotating client MACs on a port are limited once they outrun 256 times the client rate
+	private static final int CLIENT_BUCKET_SLOTS = 256;
+	private static final int PORT_BUCKET_SLOTS = 4096;
+	//a port idle this long has full buckets again, so dropping its table loses nothing
+	private static final int CLIENT_BUCKETS_IDLE_SECONDS = 60;
+
+	/** DISCOVER/REQUEST packet-ins allowed per second per client MAC; 0 disables the limit. */
+	private int client_rate_limit = CLIENT_RATE_LIMIT_DEFAULT;
+	private volatile int client_burst = 2 * CLIENT_RATE_LIMIT_DEFAULT;
+	/** Client buckets per ingress port, so rotating MACs on one port cannot drain the buckets of clients on another. */
+	private volatile Cache<ConnectPoint, TokenBucketTable> client_buckets = CLIENT_RATE_LIMIT_DEFAULT == 0 ? null :
+		newClientBuckets();
+	private final LongAdder client_refusals = new LongAdder();
+
+	/** DISCOVER/REQUEST packet-ins allowed per second per edge port; 0 disables the limit. */
+	private int port_rate_limit = PORT_RATE_LIMIT_DEFAULT;
+	private volatile TokenBucketTable port_buckets = PORT_RATE_LIMIT_DEFAULT == 0 ? null :
+		new TokenBucketTable(PORT_BUCKET_SLOTS, PORT_RATE_LIMIT_DEFAULT, 2 * PORT_RATE_LIMIT_DEFAULT);
+
+	/** Have the switches copy the DHCP handshakes to the controller, so every lease is snooped. */
+	private boolean lease_snooping = LEASE_SNOOPING_DEFAULT;
+
+	/** Leave the rules on the switches and save the leases on deactivate, and take both back on activate. */
+	private boolean warm_restart = WARM_RESTART_DEFAULT;
+
+	private static final long LEASE_SNAPSHOT_SECONDS = 60;
+	/** How long deactivate waits for each executor's running task. */
+	private static final long EXECUTOR_STOP_SECONDS = 5;
+	private final File leaseSnapshot = new File(System.getProperty("karaf.data", System.getProperty("java.io.tmpdir")),
+		"nctu.winlab.unicastdhcp/leases.bin");
+
+	/** Seconds a drop rule keeps an offender's DHCP off the controller; 0 installs none. */
+	private int offender_block_time = OFFENDER_BLOCK_TIME_DEFAULT;
+	/** Offenders with a drop rule in place, so each gets only one. */
+	private volatile Cache<String, Boolean> blocked_offenders = CacheBuilder.newBuilder().build();
+
+	/** Threads handling packet-ins, striped by device; 0 handles them on the ONOS packet thread. */
+	private int packet_workers = PACKET_WORKERS_DEFAULT;
+
+	/** Packet-ins each worker may have waiting. */
+	private int packet_queue_size = PACKET_QUEUE_SIZE_DEFAULT;
+
+	/** Install the rules of the whole path to the server at the first packet-in instead of hop by hop. */
+	private boolean proactive_path = PROACTIVE_PATH_DEFAULT;
+
+	/**
+	 * Redirect DHCP with client-independent rules ("aggregate") instead of two
+	 * rules per client per hop ("perClient"), or pick by server count ("auto").
+	 * Aggregate rules lead every client to the primary server, so only
+	 * per-client rules spread the clients over the ring.
+	 */
+	private String rule_mode = DHCP_RULE_MODE_DEFAULT;
+	/** Rule mode in effect; follows rule_mode and, in auto mode, the configured servers. */
+	private boolean aggregate_rules = !DHCP_RULE_MODE_PER_CLIENT.equals(DHCP_RULE_MODE_DEFAULT);
 	
 	@Reference(cardinality = ReferenceCardinality.MANDATORY)
 	protected ComponentConfigService cfgService;
@@ -134,36 +279,443 @@ public class AppComponent{
 	@Reference(cardinality = ReferenceCardinality.MANDATORY)
 	protected PathService pathService;
 
+	@Reference(cardinality = ReferenceCardinality.MANDATORY)
+	protected TopologyService topologyService;
+
+	@Reference(cardinality = ReferenceCardinality.MANDATORY)
+	protected EdgePortService eptService;
+
+	@Reference(cardinality = ReferenceCardinality.MANDATORY)
+	protected DeviceService deviceService;
+
 	@Activate
-	protected void activate() {
+	protected void activate(ComponentContext context) {
 		appId = coreService.registerApplication("nctu.winlab.unicastdhcp");
-		ncfgService.addListener(cfgListener);
+		serverPaths = new ServerPathCache(pathService);
+		aggregateRules = new AggregateRules(appId, priority, serverPaths, flowRuleService, eptService, log);
+		pathExecutor = Executors.newSingleThreadExecutor(groupedThreads("nctu/winlab/unicastdhcp", "server-paths", log));
+		leaseExecutor = Executors.newSingleThreadScheduledExecutor(groupedThreads("nctu/winlab/unicastdhcp", "lease-expiry", log));
+		leaseExecutor.scheduleAtFixedRate(() -> leases.expire(System.currentTimeMillis()), 1, 1, TimeUnit.SECONDS);
+		cfgService.registerProperties(getClass());
+		//auto mode picks the rules by the number of servers, and the reconcile
+		//keeps the rules of that mode, so the servers come first
 		ncfgService.registerConfigFactory(factory);
+		setServers();
+		modified(context);
+		reconcile();
+		leaseExecutor.scheduleAtFixedRate(() -> {
+			if (warm_restart) saveLeases();
+		}, LEASE_SNAPSHOT_SECONDS, LEASE_SNAPSHOT_SECONDS, TimeUnit.SECONDS);
+		topologyService.addListener(topologyListener);
+		flowRuleService.addListener(flowListener);
+		deviceService.addListener(deviceListener);
+		ncfgService.addListener(cfgListener);
+		//again, in case the config changed before the listener was in place
+		loadServers();
 		packetService.addProcessor( dhcpProcessor, PacketProcessor.director(3) );
 		log.info("Started");
 	}
 
 	@Deactivate
 	protected void deactivate() {
+		cfgService.unregisterProperties(getClass(), false);
+		//no packet-in may install a rule once the rules are removed
+		packetService.removeProcessor(dhcpProcessor);
+		dispatcher.shutdown();
+		log.debug(dispatcher.toString());
 		ncfgService.removeListener(cfgListener);
-    		ncfgService.unregisterConfigFactory(factory);
-		flowRuleService.removeFlowRulesById(appId);
-        	packetService.removeProcessor(dhcpProcessor);
+		ncfgService.unregisterConfigFactory(factory);
+		topologyService.removeListener(topologyListener);
+		flowRuleService.removeListener(flowListener);
+		deviceService.removeListener(deviceListener);
+		//the last snapshot below must not race a scheduled one on the same file
+		stop(pathExecutor);
+		stop(leaseExecutor);
+		log.info(serverPaths.toString());
+		log.info(leases.toString());
+		log.info(ruleCountReport());
+		transactions.dump().forEach(log::info);
+		log.info(rateLimitReport());
+		transactions.clear();
+		serverPaths.clear();
+		if (warm_restart) {
+			saveLeases();
+		} else {
+			flowRuleService.removeFlowRulesById(appId);
+		}
+		leases.clear();
 		log.info("Stopped");
 	}
 
+	// Stops the executor and waits for the task it is running.
+	private void stop(ExecutorService executor) {
+		executor.shutdownNow();
+		try {
+			if (!executor.awaitTermination(EXECUTOR_STOP_SECONDS, TimeUnit.SECONDS)) {
+				log.warn("Executor still busy after {}s", EXECUTOR_STOP_SECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Modified
+	public void modified(ComponentContext context) {
+		Dictionary<?, ?> properties = context != null ? context.getProperties() : new Properties();
+
+		int newWorkers = Math.max(0, intProperty(properties, PACKET_WORKERS, PACKET_WORKERS_DEFAULT));
+		int newQueueSize = Math.max(1, intProperty(properties, PACKET_QUEUE_SIZE, PACKET_QUEUE_SIZE_DEFAULT));
+		if (dispatcher == null || newWorkers != packet_workers || newQueueSize != packet_queue_size) {
+			packet_workers = newWorkers;
+			packet_queue_size = newQueueSize;
+			PacketDispatcher old = dispatcher;
+			dispatcher = new PacketDispatcher("nctu/winlab/unicastdhcp", packet_workers, packet_queue_size,
+				dhcpProcessor::actLikeSwitch, log);
+			if (old != null) old.shutdown();
+		}
+		proactive_path = booleanProperty(properties, PROACTIVE_PATH, PROACTIVE_PATH_DEFAULT);
+
+		int newClientRate = Math.max(0, intProperty(properties, CLIENT_RATE_LIMIT, CLIENT_RATE_LIMIT_DEFAULT));
+		if (newClientRate != client_rate_limit) {
+			client_rate_limit = newClientRate;
+			client_burst = burst(CLIENT_RATE_LIMIT, newClientRate);
+			client_buckets = newClientRate == 0 ? null : newClientBuckets();
+		}
+		int newPortRate = Math.max(0, intProperty(properties, PORT_RATE_LIMIT, PORT_RATE_LIMIT_DEFAULT));
+		if (newPortRate != port_rate_limit) {
+			port_rate_limit = newPortRate;
+			port_buckets = newPortRate == 0 ? null :
+				new TokenBucketTable(PORT_BUCKET_SLOTS, newPortRate, burst(PORT_RATE_LIMIT, newPortRate));
+		}
+		warm_restart = booleanProperty(properties, WARM_RESTART, WARM_RESTART_DEFAULT);
+		boolean newSnooping = booleanProperty(properties, LEASE_SNOOPING, LEASE_SNOOPING_DEFAULT);
+		boolean newTracking = booleanProperty(properties, TRACK_TRANSACTIONS, TRACK_TRANSACTIONS_DEFAULT);
+		if (newSnooping != lease_snooping || newTracking != track_transactions) {
+			lease_snooping = newSnooping;
+			track_transactions = newTracking;
+			refreshAggregateRules();
+		}
+		int newBlockTime = Math.max(0, intProperty(properties, OFFENDER_BLOCK_TIME, OFFENDER_BLOCK_TIME_DEFAULT));
+		if (newBlockTime != offender_block_time) {
+			offender_block_time = newBlockTime;
+			blocked_offenders = CacheBuilder.newBuilder().expireAfterWrite(Math.max(newBlockTime, 1), TimeUnit.SECONDS).build();
+		}
+
+		//entries outlive their rule's idle timeout a little, in case the removal event is lost
+		int capacity = Math.max(1, intProperty(properties, CLIENT_RULE_CAPACITY, CLIENT_RULE_CAPACITY_DEFAULT));
+		if (capacity != ToSever_rule_table.maxSize() || 2 * idle_time != ToSever_rule_table.expireSeconds()) {
+			ToSever_rule_table = ToSever_rule_table.resize(capacity, 2 * idle_time);
+			ToClient_rule_table = ToClient_rule_table.resize(capacity, 2 * idle_time);
+		}
+
+		String mode = get(properties, DHCP_RULE_MODE);
+		if (Strings.isNullOrEmpty(mode)) {
+			mode = DHCP_RULE_MODE_DEFAULT;
+		} else if (!mode.trim().equals(DHCP_RULE_MODE_AGGREGATE) && !mode.trim().equals(DHCP_RULE_MODE_PER_CLIENT)
+				&& !mode.trim().equals(DHCP_RULE_MODE_AUTO)) {
+			log.warn("Invalid {} value {}, using {}", DHCP_RULE_MODE, mode, DHCP_RULE_MODE_DEFAULT);
+			mode = DHCP_RULE_MODE_DEFAULT;
+		}
+		rule_mode = mode.trim();
+		applyRuleMode();
+		log.info("Reconfigured: {} packet workers, proactive path {}, {} rules ({})", packet_workers, proactive_path,
+			aggregate_rules ? DHCP_RULE_MODE_AGGREGATE : DHCP_RULE_MODE_PER_CLIENT, rule_mode);
+		log.info(ruleCountReport());
+	}
+
+	// Switches between aggregate and per-client rules when the configured
+	// mode, or in auto mode the number of servers, asks for the other one.
+	private synchronized void applyRuleMode() {
+		boolean newAggregate = DHCP_RULE_MODE_AGGREGATE.equals(rule_mode)
+				|| (DHCP_RULE_MODE_AUTO.equals(rule_mode) && serverRing.servers().size() <= 1);
+		if (newAggregate == aggregate_rules) return;
+		aggregate_rules = newAggregate;
+		if (aggregate_rules) {
+			clearClientRules();
+			refreshAggregateRules();
+		} else {
+			pathExecutor.execute(aggregateRules::clear);
+		}
+	}
+
+	//recomputed off the event threads, after any pending path warm-up; the
+	//rules do not know the client, so they all lead to the primary server
+	private void refreshAggregateRules() {
+		ConnectPoint server = serverRing.primary();
+		if (!aggregate_rules || server == null) return;
+		//the lease store and the tracker both need the handshakes
+		boolean copy = lease_snooping || track_transactions;
+		pathExecutor.execute(() -> aggregateRules.update(topologyDevices(), server.deviceId(), server.port(), copy));
+	}
+
+	private boolean serverUp(ConnectPoint server) {
+		if (!deviceService.isAvailable(server.deviceId())) return false;
+		Port port = deviceService.getPort(server);
+		return port != null && port.isEnabled();
+	}
+
+	// Takes the servers from the network config; false if there is none yet.
+	private boolean setServers() {
+		LocationConfig config = ncfgService.getConfig(appId, LocationConfig.class);
+		if (config == null) return false;
+		List<ConnectPoint> servers = config.servers();
+		serverRing.setServers(servers);
+		Set<DeviceId> serverDevices = Sets.newHashSet();
+		servers.forEach(server -> serverDevices.add(server.deviceId()));
+		serverPaths.setServers(serverDevices);
+		return true;
+	}
+
+	// Puts the configured servers to use: their paths, health, the rule mode
+	// they call for and the packet-in requests.
+	private void loadServers() {
+		if (!setServers()) return;
+		pathExecutor.execute(() -> serverPaths.warm(topologyDevices()));
+		checkServers(null);
+		applyRuleMode();
+		refreshAggregateRules();
+		cfgListener.request();
+		log.info("DHCP servers are at {}", serverRing.servers());
+	}
+
+	// Marks the servers on the device up or down; on a failover the per-client
+	// rules of the lost server's clients are dropped, so their next DISCOVER
+	// comes up again and is sent to the next server on the ring. The clients
+	// of the other servers keep their rules.
+	private void checkServers(DeviceId deviceId) {
+		Set<ConnectPoint> lost = Sets.newHashSet();
+		boolean changed = false;
+		for (ConnectPoint server : serverRing.servers()) {
+			if (deviceId != null && !server.deviceId().equals(deviceId)) continue;
+			if (serverUp(server)) {
+				if (serverRing.markUp(server)) {
+					log.info("DHCP server {} is back", server);
+					changed = true;
+				}
+			} else if (!serverRing.isDown(server)) {
+				lost.add(server);
+			}
+		}
+		if (!lost.isEmpty()) {
+			//who the lost servers served, taken before their clients move on
+			Set<Long> moved = Sets.newHashSet();
+			if (!aggregate_rules) {
+				Set<Long> clients = Sets.newHashSet(ToSever_rule_table.clients());
+				clients.addAll(ToClient_rule_table.clients());
+				for (Long client : clients) {
+					if (lost.contains(serverRing.serverFor(MacAddress.valueOf(client)))) moved.add(client);
+				}
+			}
+			for (ConnectPoint server : lost) {
+				if (serverRing.markDown(server)) log.warn("DHCP server {} is down, failing over", server);
+			}
+			removeClientRules(moved);
+			changed = true;
+		}
+		if (changed) refreshAggregateRules();
+	}
+
+	// Takes back what a warm restart left behind: the rules still on the
+	// switches go back into the tables they came from, those of the rule mode
+	// not in use are removed, and the saved leases that have not expired are
+	// reloaded. The server paths are not saved; they follow the topology and
+	// are recomputed once the server config arrives.
+	private void reconcile() {
+		int aggregate = 0;
+		int perClient = 0;
+		for (FlowEntry entry : flowRuleService.getFlowEntriesById(appId)) {
+			if (aggregateRules.adopt(entry)) {
+				aggregate++;
+				continue;
+			}
+			//rate-limit drop rules sit at a higher priority and expire on their own
+			if (entry.isPermanent() || entry.priority() != priority) continue;
+			Criterion src = entry.selector().getCriterion(Criterion.Type.ETH_SRC);
+			Criterion dst = entry.selector().getCriterion(Criterion.Type.ETH_DST);
+			if (src != null) {
+				ToSever_rule_table.put(entry.deviceId(), ((EthCriterion) src).mac(), new DefaultFlowRule(entry));
+				perClient++;
+			} else if (dst != null) {
+				ToClient_rule_table.put(entry.deviceId(), ((EthCriterion) dst).mac(), new DefaultFlowRule(entry));
+				perClient++;
+			}
+		}
+		if (aggregate_rules) {
+			clearClientRules();
+		} else {
+			pathExecutor.execute(aggregateRules::clear);
+		}
+		int loaded = 0;
+		if (warm_restart && leaseSnapshot.exists()) {
+			try {
+				loaded = leases.load(leaseSnapshot, System.currentTimeMillis());
+			} catch (IOException e) {
+				log.warn("Failed to load DHCP leases from {}: {}", leaseSnapshot, e.getMessage());
+			}
+		}
+		log.info("Reconciled {} aggregate and {} per-client rules, {} leases", aggregate, perClient, loaded);
+	}
+
+	private void saveLeases() {
+		try {
+			leases.save(leaseSnapshot);
+		} catch (IOException e) {
+			log.warn("Failed to save DHCP leases to {}: {}", leaseSnapshot, e.getMessage());
+		}
+	}
+
+	private void clearClientRules() {
+		List<FlowRule> rules = Lists.newArrayList();
+		rules.addAll(ToSever_rule_table.rules());
+		rules.addAll(ToClient_rule_table.rules());
+		ToSever_rule_table.clear();
+		ToClient_rule_table.clear();
+		if (!rules.isEmpty()) flowRuleService.removeFlowRules(rules.toArray(new FlowRule[0]));
+	}
+
+	private void removeClientRules(Set<Long> clients) {
+		if (clients.isEmpty()) return;
+		List<FlowRule> rules = Lists.newArrayList();
+		rules.addAll(ToSever_rule_table.remove(clients));
+		rules.addAll(ToClient_rule_table.remove(clients));
+		if (!rules.isEmpty()) flowRuleService.removeFlowRules(rules.toArray(new FlowRule[0]));
+	}
+
+	// Aggregate rules are one per downstream port plus one per device; per-client
+	// rules are two per client on every hop of its path.
+	@Override
+	public List<String> traceDump() {
+		List<String> lines = Lists.newArrayList(transactions.dump());
+		lines.add(dispatcher.toString());
+		lines.add(serverRing.toString());
+		lines.add(leases.toString());
+		lines.add(ruleCountReport());
+		lines.add(rateLimitReport());
+		return lines;
+	}
+
+	private String ruleCountReport() {
+		long perClient = ToSever_rule_table.size() + ToClient_rule_table.size();
+		return String.format("DHCP rules: %d aggregate, %d per-client for %d clients (%d evicted at capacity %d)",
+			aggregateRules.size(), perClient, ToSever_rule_table.clients().size(),
+			ToSever_rule_table.evictions() + ToClient_rule_table.evictions(), ToSever_rule_table.maxSize());
+	}
+
+	private String rateLimitReport() {
+		Cache<ConnectPoint, TokenBucketTable> clients = client_buckets;
+		TokenBucketTable ports = port_buckets;
+		return String.format("DHCP rate limits: %d/s per client on %d ports (%d refused), %d/s per edge port (%d refused), %d offenders blocked",
+			client_rate_limit, clients == null ? 0 : clients.size(), client_refusals.sum(),
+			port_rate_limit, ports == null ? 0 : ports.limited(), blocked_offenders.size());
+	}
+
+	private static Cache<ConnectPoint, TokenBucketTable> newClientBuckets() {
+		return CacheBuilder.newBuilder().expireAfterAccess(CLIENT_BUCKETS_IDLE_SECONDS, TimeUnit.SECONDS).build();
+	}
+
+	// Bursts of twice the rate, cut to the most a bucket holds.
+	private int burst(String name, int rate) {
+		if (rate > TokenBucketTable.MAX_BURST / 2) {
+			log.warn("{} {} allows bursts of only {}", name, rate, TokenBucketTable.MAX_BURST);
+			return TokenBucketTable.MAX_BURST;
+		}
+		return 2 * rate;
+	}
+
+	@Override
+	public List<Histogram> transactionLatencies() {
+		return transactions.histograms();
+	}
+
+	@Override
+	public long openTransactions() {
+		return transactions.openTransactions();
+	}
+
+	@Override
+	public DhcpLease leaseOf(Ip4Address ip) {
+		return leases.byIp(ip.toInt());
+	}
+
+	@Override
+	public DhcpLease leaseOf(MacAddress mac) {
+		return leases.byMac(mac.toLong());
+	}
+
+	private boolean booleanProperty(Dictionary<?, ?> properties, String name, boolean defaultValue) {
+		String s = get(properties, name);
+		return Strings.isNullOrEmpty(s) ? defaultValue : Boolean.parseBoolean(s.trim());
+	}
+
+	private int intProperty(Dictionary<?, ?> properties, String name, int defaultValue) {
+		String s = get(properties, name);
+		try {
+			return Strings.isNullOrEmpty(s) ? defaultValue : Integer.parseInt(s.trim());
+		} catch (NumberFormatException e) {
+			log.warn("Invalid {} value {}, using {}", name, s, defaultValue);
+			return defaultValue;
+		}
+	}
+
+	private List<DeviceId> topologyDevices() {
+		List<DeviceId> devices = Lists.newArrayList();
+		for (TopologyVertex vertex : topologyService.getGraph(topologyService.currentTopology()).getVertexes()) {
+			devices.add(vertex.deviceId());
+		}
+		return devices;
+	}
+
+	//forget per-client rules once the switch dropped them
+	private class InternalFlowRuleListener implements FlowRuleListener {
+		@Override
+		public void event(FlowRuleEvent event) {
+			FlowRule rule = event.subject();
+			if (event.type() != FlowRuleEvent.Type.RULE_REMOVED || rule.appId() != appId.id()) return;
+			ToSever_rule_table.removed(rule);
+			ToClient_rule_table.removed(rule);
+		}
+	}
+
+	//server health follows its device and port
+	private class InternalDeviceListener implements DeviceListener {
+		@Override
+		public void event(DeviceEvent event) {
+			switch (event.type()) {
+				case DEVICE_ADDED:
+				case DEVICE_AVAILABILITY_CHANGED:
+				case DEVICE_REMOVED:
+				case PORT_ADDED:
+				case PORT_UPDATED:
+				case PORT_REMOVED:
+					checkServers(event.subject().id());
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	//only the paths over a removed link or device are recomputed
+	private class InternalTopologyListener implements TopologyListener {
+		@Override
+		public void event(TopologyEvent event) {
+			if (event.reasons() == null) return;
+			for (Event reason : event.reasons()) {
+				if (reason instanceof LinkEvent && reason.type() == LinkEvent.Type.LINK_REMOVED) {
+					serverPaths.linkRemoved(((LinkEvent) reason).subject());
+				} else if (reason instanceof DeviceEvent && reason.type() == DeviceEvent.Type.DEVICE_REMOVED) {
+					serverPaths.deviceRemoved(((DeviceEvent) reason).subject().id());
+				}
+			}
+			refreshAggregateRules();
+		}
+	}
+
 	private class LocationConfigListener implements NetworkConfigListener {
 		@Override
 		public void event(NetworkConfigEvent event) {
 			if ((event.type() == CONFIG_ADDED || event.type() == CONFIG_UPDATED) && event.configClass().equals(LocationConfig.class)) {
-				LocationConfig config = ncfgService.getConfig(appId, LocationConfig.class);
-				if (config != null) {
-					String[] splitted = config.name().split("/");
-					DHCPvS = DeviceId.deviceId(splitted[0]);
-					DHCPvSP = PortNumber.portNumber(splitted[1]);
-					request();
-					log.info("DHCP sever is at {}", config.name());
-				}
+				loadServers();
 			}
 		}
 		public void request() {
@@ -189,88 +741,248 @@ public class AppComponent{
 	}
 	////
 
-	private class DhcpProcessor implements PacketProcessor {
+	class DhcpProcessor implements PacketProcessor {
 		@Override
 		public void process( PacketContext pc ){
 			if (pc.isHandled()) return;
-			actLikeSwitch( pc );
+			//only DHCP is ours; everything else is left to the other processors
+			if( DhcpClassifier.messageType( pc.inPacket().unparsed() ) == DhcpClassifier.NOT_DHCP ) return;
+			if( !admit( pc ) ){
+				pc.block();
+				return;
+			}
+			dispatcher.dispatch( pc );
+		}
+
+		//client floods are cut here, before they queue up or cost a path lookup
+		private boolean admit( PacketContext pc ){
+			Cache<ConnectPoint, TokenBucketTable> clients = client_buckets;
+			TokenBucketTable ports = port_buckets;
+			if( clients == null && ports == null ) return true;
+			ByteBuffer frame = pc.inPacket().unparsed();
+			int type = DhcpClassifier.messageType( frame );
+			if( type != DISCOVER && type != REQUEST ) return true;
+
+			ConnectPoint cp = pc.inPacket().receivedFrom();
+			long src = DhcpClassifier.srcMac( frame );
+			if( clients != null ){
+				int rate = client_rate_limit;
+				int burst = client_burst;
+				TokenBucketTable table = clients.asMap().computeIfAbsent( cp, k -> new TokenBucketTable( CLIENT_BUCKET_SLOTS, rate, burst ) );
+				if( !table.tryAcquire( src ) ){
+					client_refusals.increment();
+					blockOffender( cp, MacAddress.valueOf( src ) );
+					return false;
+				}
+			}
+			//ports between switches carry everyone's DHCP, so only edge ports are limited
+			if( ports != null && eptService.isEdgePoint( cp ) ){
+				long key = 1L << 63 | (cp.deviceId().hashCode() & 0x7fffffffL) << 32 | (cp.port().toLong() & 0xffffffffL);
+				if( !ports.tryAcquire( key ) ){
+					blockOffender( cp, null );
+					return false;
+				}
+			}
+			return true;
+		}
+
+		//drops the client's, or the whole port's, DHCP requests on the switch for a while
+		private void blockOffender( ConnectPoint cp, MacAddress client ){
+			int seconds = offender_block_time;
+			if( seconds == 0 ) return;
+			String offender = client == null ? cp.toString() : cp + "/" + client;
+			if( blocked_offenders.asMap().putIfAbsent( offender, Boolean.TRUE ) != null ) return;
+
+			TrafficSelector.Builder selector = DefaultTrafficSelector.builder()
+				.matchInPort( cp.port() )
+				.matchEthType( Ethernet.TYPE_IPV4 )
+				.matchIPProtocol( IPv4.PROTOCOL_UDP )
+				.matchUdpSrc( TpPort.tpPort(UDP.DHCP_CLIENT_PORT) )
+				.matchUdpDst( TpPort.tpPort(UDP.DHCP_SERVER_PORT) );
+			if( client != null ) selector.matchEthSrc( client );
+			flowRuleService.applyFlowRules( DefaultFlowRule.builder()
+				.withSelector	( selector.build() )
+				.withTreatment	( DefaultTrafficTreatment.builder().drop().build() )
+				.withPriority	( priority + 10 )
+				.makeTemporary	( seconds )
+				.withHardTimeout( seconds )
+				.forDevice	( cp.deviceId() )
+				.fromApp	( appId )
+				.build		() );
+			log.warn("DHCP flood from {}, dropping its requests for {}s", offender, seconds);
 		}
 
 		public void actLikeSwitch( PacketContext pc ){
+			long start		= System.nanoTime();
 			InboundPacket inPacket 	= pc.inPacket();
 			ConnectPoint cp 	= inPacket.receivedFrom();
 			
-			Ethernet etherFrame 	= inPacket.parsed();		
-			if( etherFrame.getEtherType() != Ethernet.TYPE_IPV4 ) return;
-
-			IPv4 ipDatagram		= (IPv4) etherFrame.getPayload();
-			if( ipDatagram.getProtocol() != IPv4.PROTOCOL_UDP ) return;
+			//classify straight from the frame bytes; the parsed packet is never touched
+			ByteBuffer frame	= inPacket.unparsed();
+			int type		= DhcpClassifier.messageType( frame );
+			if( type == DhcpClassifier.NOT_DHCP ) return;
+
+			boolean track = track_transactions;
+			if( track ) transactions.seen( type, DhcpClassifier.xid( frame ), DhcpClassifier.clientMac( frame ), start );
+			snoop( cp, frame, type );
+			relay( pc, cp, frame, type );
+			if( track ) transactions.processed( start, System.nanoTime() );
+		}
 
-			UDP udpSegment		= (UDP) ipDatagram.getPayload();
-			if( !(udpSegment.getSourcePort() == UDP.DHCP_CLIENT_PORT && udpSegment.getDestinationPort() == UDP.DHCP_SERVER_PORT) && !(udpSegment.getSourcePort() == UDP.DHCP_SERVER_PORT && udpSegment.getDestinationPort() == UDP.DHCP_CLIENT_PORT)) return;
+		//the client's edge port comes from its request, the address and lease time from the ACK
+		private void snoop( ConnectPoint cp, ByteBuffer frame, int type ){
+			long client = DhcpClassifier.clientMac( frame );
+			if( type == DISCOVER || type == REQUEST ){
+				if( eptService.isEdgePoint( cp ) ) leases.clientAt( client, cp );
+			}else if( type == ACK ){
+				int ip = DhcpClassifier.yourIp( frame );
+				long leaseTime = DhcpClassifier.leaseTime( frame );
+				if( ip != 0 && leaseTime >= 0 ) leases.bind( ip, client, leaseTime, System.currentTimeMillis() );
+			}else if( type == RELEASE ){
+				leases.release( client );
+			}
+		}
 
-			DHCP dhcpPacket		= (DHCP) udpSegment.getPayload();
+		private void relay( PacketContext pc, ConnectPoint cp, ByteBuffer frame, int type ){
+			MacAddress src = MacAddress.valueOf( DhcpClassifier.srcMac( frame ) );
+			MacAddress dst = MacAddress.valueOf( DhcpClassifier.dstMac( frame ) );
 
-			MacAddress src = etherFrame.getSourceMAC();
-			MacAddress dst = etherFrame.getDestinationMAC();
+			//only devices the aggregate rules do not cover yet send DHCP up to be
+			//relayed; the copies of what the rules forwarded are only snooped
+			if( aggregate_rules ){
+				if( type == DISCOVER || type == REQUEST ){
+					if( !aggregateRules.isCopy( cp, false ) ) relayToServer( pc, cp );
+				}
+				else if( type == OFFER || type == ACK ){
+					if( !aggregateRules.isCopy( cp, true ) ) relayToClients( pc, cp );
+				}
+				return;
+			}
 
-			if( dhcpPacket.getPacketType() == DHCP.MsgType.DHCPOFFER){
-				if( !ToClient_rule_table.containsKey(cp.deviceId()) ) return;
-				//log.info("11111");
-				Map<MacAddress, FlowRule> temp = ToClient_rule_table.get(cp.deviceId());
-				//log.info("dst {}", dst);
-				//log.info("map {}", temp.containsKey(dst));
-				if( !temp.containsKey(dst) ) return;
-				//log.info("flow rule {}", temp.get(dst).toString());
-				flowRuleService.applyFlowRules( temp.get(dst) );
+			if( type == OFFER ){
+				FlowRule rule = ToClient_rule_table.get(cp.deviceId(), dst);
+				if( rule == null ) return;
+				flowRuleService.applyFlowRules( rule );
 				return;
 			}
-			if( dhcpPacket.getPacketType() == DHCP.MsgType.DHCPREQUEST){
+			if( type == REQUEST ){
 				pathCompute( pc, cp, src );
 				return;
 			}
-			if( dhcpPacket.getPacketType() == DHCP.MsgType.DHCPACK){
-				if( !ToClient_rule_table.containsKey(cp.deviceId()) ) return;
-				//log.info("33333");
-				Map<MacAddress, FlowRule> temp = ToClient_rule_table.get(cp.deviceId());
-				if( !temp.containsKey(dst) ) return;
-				flowRuleService.applyFlowRules( temp.get(dst) );
+			if( type == ACK ){
+				FlowRule rule = ToClient_rule_table.get(cp.deviceId(), dst);
+				if( rule == null ) return;
+				flowRuleService.applyFlowRules( rule );
 				return;
 			}
-			if( dhcpPacket.getPacketType() == DHCP.MsgType.DHCPDISCOVER){
+			if( type == DISCOVER ){
 				pathCompute( pc, cp, src );
 				return;
 			}
 		}
 
 
+		//the aggregate rules lead to the primary server, so this does too
+		private void relayToServer( PacketContext pc, ConnectPoint cp ){
+			ConnectPoint server = serverRing.primary();
+			if( server == null ) return;
+			PortNumber out = server.port();
+			if( !cp.deviceId().equals(server.deviceId()) ){
+				Path path = serverPaths.path(cp.deviceId(), server.deviceId());
+				if( path == null ) return;
+				out = path.links().get(0).src().port();
+			}
+			packetOut( pc, DefaultTrafficTreatment.builder().setOutput( out ) );
+		}
+
+		//replies go down the tree like the aggregate rules send them, whoever the client is
+		private void relayToClients( PacketContext pc, ConnectPoint cp ){
+			Set<PortNumber> ports = aggregateRules.downPorts(cp.deviceId());
+			TrafficTreatment.Builder treatment = DefaultTrafficTreatment.builder();
+			if( ports == null ){
+				treatment.setOutput( PortNumber.FLOOD );
+			}else{
+				for( PortNumber port : ports ){
+					if( !port.equals(cp.port()) ) treatment.setOutput( port );
+				}
+			}
+			packetOut( pc, treatment );
+		}
+
+		//the dispatcher blocked the context, so pc.send() would do nothing
+		private void packetOut( PacketContext pc, TrafficTreatment.Builder treatment ){
+			InboundPacket inPacket = pc.inPacket();
+			packetService.emit( new DefaultOutboundPacket( inPacket.receivedFrom().deviceId(), treatment.build(), inPacket.unparsed() ) );
+		}
+
 		public void pathCompute( PacketContext pc, ConnectPoint cp, MacAddress client ){
 			//log.info("aaaaa");
+			ConnectPoint server = serverRing.serverFor( client );
+			if( server == null ) return;
+			if( proactive_path && installPath( pc, cp, client, server ) ) return;
 			PortNumber ToseverPort = cp.port();
 			PortNumber ToclientPort = cp.port();
 			
-			if(cp.deviceId().toString().equals(DHCPvS.toString())){
-				flowRule3( DHCPvSP, ToclientPort, cp.deviceId(), client );
-				flowRule4( ToclientPort, DHCPvSP, cp.deviceId(), client );
+			if(cp.deviceId().equals(server.deviceId())){
+				flowRule3( server.port(), ToclientPort, cp.deviceId(), client );
+				flowRule4( ToclientPort, server.port(), cp.deviceId(), client );
 				return;
 			}
 
-			Set<Path> paths = pathService.getPaths(cp.deviceId(), DHCPvS);
-			for(Path path: paths){
-				if(path.links() != null && !path.links().isEmpty()){
-					ToseverPort = path.links().get(0).src().port();
-					break;
-				}
+			Path path = serverPaths.path(cp.deviceId(), server.deviceId());
+			if(path != null){
+				ToseverPort = path.links().get(0).src().port();
 			}
 			
-			pc.treatmentBuilder().setOutput( ToseverPort );
-			pc.send();
+			packetOut( pc, DefaultTrafficTreatment.builder().setOutput( ToseverPort ) );
 			flowRule3( ToseverPort, ToclientPort, cp.deviceId(), client );
 			flowRule4( ToclientPort, ToseverPort, cp.deviceId(), client );
 		}
 
 
+		//install both directions on every hop to the server as one batch, so the
+		//switches further along forward the handshake without asking again;
+		//false if there is no path yet
+		private boolean installPath( PacketContext pc, ConnectPoint cp, MacAddress client, ConnectPoint serverCp ){
+			DeviceId server = serverCp.deviceId();
+			PortNumber serverPort = serverCp.port();
+			PortNumber firstHop = serverPort;
+			PortNumber input = cp.port();
+			FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+
+			if( !cp.deviceId().equals(server) ){
+				Path path = serverPaths.path(cp.deviceId(), server);
+				if( path == null ) return false;
+				for( Link link : path.links() ){
+					ops.add( toServerRule( link.src().port(), input, link.src().deviceId(), client ) );
+					ops.add( toClientRule( input, link.src().port(), link.src().deviceId(), client ) );
+					input = link.dst().port();
+				}
+				firstHop = path.links().get(0).src().port();
+			}
+			ops.add( toServerRule( serverPort, input, server, client ) );
+			ops.add( toClientRule( input, serverPort, server, client ) );
+
+			flowRuleService.apply( ops.build( new FlowRuleOperationsContext() {
+				@Override
+				public void onError(FlowRuleOperations failed) {
+					log.warn("Failed to install the DHCP path of {}", client);
+				}
+			} ) );
+			packetOut( pc, DefaultTrafficTreatment.builder().setOutput( firstHop ) );
+			return true;
+		}
+
 		public void flowRule3( PortNumber output, PortNumber input, DeviceId sId, MacAddress client ){
+			flowRuleService.applyFlowRules( toServerRule( output, input, sId, client ) );
+		}
+
+		public void flowRule4( PortNumber output, PortNumber input, DeviceId sId, MacAddress client ){
+			flowRuleService.applyFlowRules( toClientRule( output, input, sId, client ) );
+		}
+
+		//client -> server rule of one hop, remembered for later re-installs
+		private FlowRule toServerRule( PortNumber output, PortNumber input, DeviceId sId, MacAddress client ){
 			FlowRule flowRule = DefaultFlowRule.builder()
 			.withSelector	( DefaultTrafficSelector.builder().matchInPort(input).matchEthSrc(client).build() )
 			.withTreatment	( DefaultTrafficTreatment.builder().setOutput(output).build() )
@@ -279,19 +991,12 @@ public class AppComponent{
 			.forDevice	( sId )
 			.fromApp	( appId )
 			.build		();
-			
-			if(ToSever_rule_table.containsKey(sId)){
-				Map<MacAddress, FlowRule> temp = ToSever_rule_table.get(sId);
-				temp.put(client, flowRule);
-			}else{
-				Map<MacAddress, FlowRule> temp = Maps.newConcurrentMap();
-				temp.put(client, flowRule);
-				ToSever_rule_table.put(sId, temp);
-			}
-			flowRuleService.applyFlowRules( flowRule );
+			ToSever_rule_table.put( sId, client, flowRule );
+			return flowRule;
 		}
 
-		public void flowRule4( PortNumber output, PortNumber input, DeviceId sId, MacAddress client ){
+		//server -> client rule of one hop, remembered for the OFFER/ACK
+		private FlowRule toClientRule( PortNumber output, PortNumber input, DeviceId sId, MacAddress client ){
 			FlowRule flowRule = DefaultFlowRule.builder()
 			.withSelector	( DefaultTrafficSelector.builder().matchInPort(input).matchEthDst(client).build() )
 			.withTreatment	( DefaultTrafficTreatment.builder().setOutput(output).build() )
@@ -300,15 +1005,8 @@ public class AppComponent{
 			.forDevice	( sId )
 			.fromApp	( appId )
 			.build		();
-			if(ToClient_rule_table.containsKey(sId)){
-				Map<MacAddress, FlowRule> temp = ToClient_rule_table.get(sId);
-				temp.put(client, flowRule);
-			}else{
-				Map<MacAddress, FlowRule> temp = Maps.newConcurrentMap();
-				temp.put(client, flowRule);
-				ToClient_rule_table.put(sId, temp);
-			}
-			flowRuleService.applyFlowRules( flowRule );
+			ToClient_rule_table.put( sId, client, flowRule );
+			return flowRule;
 		}
 
 	}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.EthCriterion;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-client DHCP rules of every device, keyed by one long packing a small
+ * device number above the 48-bit client MAC. Entries leave when the switch
+ * reports the rule removed, when they have not been used for the expiry
+ * time, or, least recently used first, when the table is full.
+ */
+public class ClientRuleTable {
+
+	private static final long MAC_MASK = 0xffffffffffffL;
+
+	/** Criterion holding the client MAC in this table's rules. */
+	private final Criterion.Type clientField;
+	private final long maxSize;
+	private final long expireSeconds;
+	private final Cache<Long, FlowRule> rules;
+	/** Shared with resized copies so their keys stay valid. */
+	private final Map<DeviceId, Integer> deviceNumbers;
+	private final AtomicInteger nextNumber;
+
+	/**
+	 * @param clientField ETH_SRC for client to server rules, ETH_DST for the reverse
+	 */
+	public ClientRuleTable(Criterion.Type clientField, long maxSize, long expireSeconds) {
+		this(clientField, maxSize, expireSeconds, Maps.newConcurrentMap(), new AtomicInteger());
+	}
+
+	private ClientRuleTable(Criterion.Type clientField, long maxSize, long expireSeconds,
+			Map<DeviceId, Integer> deviceNumbers, AtomicInteger nextNumber) {
+		this.clientField = clientField;
+		this.maxSize = maxSize;
+		this.expireSeconds = expireSeconds;
+		this.deviceNumbers = deviceNumbers;
+		this.nextNumber = nextNumber;
+		this.rules = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.expireAfterAccess(expireSeconds, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+	}
+
+	private long key(DeviceId deviceId, long mac) {
+		long number = deviceNumbers.computeIfAbsent(deviceId, d -> nextNumber.getAndIncrement());
+		return number << 48 | (mac & MAC_MASK);
+	}
+
+	public void put(DeviceId deviceId, MacAddress client, FlowRule rule) {
+		rules.put(key(deviceId, client.toLong()), rule);
+	}
+
+	/** @return the client's rule on the device, or null */
+	public FlowRule get(DeviceId deviceId, MacAddress client) {
+		Integer number = deviceNumbers.get(deviceId);
+		return number == null ? null : rules.getIfPresent((long) number << 48 | client.toLong());
+	}
+
+	/** Forgets a rule the switch no longer has, unless it was replaced since. */
+	public void removed(FlowRule rule) {
+		Criterion c = rule.selector().getCriterion(clientField);
+		Integer number = deviceNumbers.get(rule.deviceId());
+		if (c == null || number == null) {
+			return;
+		}
+		long key = (long) number << 48 | ((EthCriterion) c).mac().toLong();
+		rules.asMap().remove(key, rule);
+	}
+
+	public long size() {
+		rules.cleanUp();
+		return rules.size();
+	}
+
+	public long evictions() {
+		return rules.stats().evictionCount();
+	}
+
+	public Collection<FlowRule> rules() {
+		return rules.asMap().values();
+	}
+
+	/** Distinct client MACs with a rule on any device. */
+	public Set<Long> clients() {
+		Set<Long> macs = Sets.newHashSet();
+		for (Long key : rules.asMap().keySet()) {
+			macs.add(key & MAC_MASK);
+		}
+		return macs;
+	}
+
+	/**
+	 * Forgets the rules of the clients on every device.
+	 *
+	 * @param clients client MACs as longs
+	 * @return the rules forgotten, for the caller to remove from the switches
+	 */
+	public List<FlowRule> remove(Set<Long> clients) {
+		List<FlowRule> removed = Lists.newArrayList();
+		Iterator<Map.Entry<Long, FlowRule>> it = rules.asMap().entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Long, FlowRule> e = it.next();
+			if (clients.contains(e.getKey() & MAC_MASK)) {
+				removed.add(e.getValue());
+				it.remove();
+			}
+		}
+		return removed;
+	}
+
+	/** Copy of this table with a new bound and expiry; entries over a smaller bound are evicted. */
+	public ClientRuleTable resize(long newMaxSize, long newExpireSeconds) {
+		ClientRuleTable table = new ClientRuleTable(clientField, newMaxSize, newExpireSeconds, deviceNumbers, nextNumber);
+		table.rules.putAll(rules.asMap());
+		return table;
+	}
+
+	public long maxSize() {
+		return maxSize;
+	}
+
+	public long expireSeconds() {
+		return expireSeconds;
+	}
+
+	public void clear() {
+		rules.invalidateAll();
+	}
+}
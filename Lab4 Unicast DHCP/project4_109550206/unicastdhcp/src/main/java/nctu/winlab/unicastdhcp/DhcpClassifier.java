@@ -0,0 +1,173 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.UDP;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Classifies a raw Ethernet frame as DHCP by reading fixed offsets of the
+ * frame bytes: ethertype (behind at most one VLAN tag), IPv4 protocol,
+ * UDP ports, the DHCP magic cookie and option 53. Uses absolute reads
+ * only, so it neither moves the buffer's position nor allocates.
+ */
+public final class DhcpClassifier {
+
+	/** Returned for anything that is not a DHCP message with a message type. */
+	public static final int NOT_DHCP = 0;
+
+	private static final int ETH_HEADER = 14;
+	private static final int VLAN_TAG = 4;
+	private static final int UDP_HEADER = 8;
+	/** op .. file fields of the BOOTP header. */
+	private static final int BOOTP_FIXED = 236;
+	private static final int XID = 4;
+	private static final int YIADDR = 16;
+	private static final int CHADDR = 28;
+	private static final int MAGIC_COOKIE = 0x63825363;
+	private static final int OPTION_PAD = 0;
+	private static final int OPTION_END = 255;
+	private static final int OPTION_LEASE_TIME = 51;
+	private static final int OPTION_MESSAGE_TYPE = 53;
+
+	private DhcpClassifier() {
+	}
+
+	/**
+	 * @return the DHCP message type (option 53) of the frame, or
+	 *         {@link #NOT_DHCP} if it is not a client/server DHCP message
+	 */
+	public static int messageType(ByteBuffer frame) {
+		int dhcp = dhcpOffset(frame);
+		if (dhcp < 0) {
+			return NOT_DHCP;
+		}
+		int at = option(frame, dhcp, OPTION_MESSAGE_TYPE, 1);
+		return at < 0 ? NOT_DHCP : frame.get(at) & 0xff;
+	}
+
+	/** Transaction id of a frame {@link #messageType} accepted. */
+	public static int xid(ByteBuffer frame) {
+		return frame.getInt(dhcpOffset(frame) + XID);
+	}
+
+	/** Client hardware address (chaddr) of a frame {@link #messageType} accepted. */
+	public static long clientMac(ByteBuffer frame) {
+		return mac(frame, dhcpOffset(frame) + CHADDR);
+	}
+
+	/** Address given to the client (yiaddr) of a frame {@link #messageType} accepted. */
+	public static int yourIp(ByteBuffer frame) {
+		return frame.getInt(dhcpOffset(frame) + YIADDR);
+	}
+
+	/**
+	 * @return lease time in seconds (option 51) of a frame
+	 *         {@link #messageType} accepted, or -1 if it has none
+	 */
+	public static long leaseTime(ByteBuffer frame) {
+		int at = option(frame, dhcpOffset(frame), OPTION_LEASE_TIME, 4);
+		return at < 0 ? -1 : frame.getInt(at) & 0xffffffffL;
+	}
+
+	/** @return offset of the option's value, or -1 if it is missing or shorter than {@code length} */
+	private static int option(ByteBuffer frame, int dhcp, int option, int length) {
+		int end = frame.limit();
+		int i = dhcp + BOOTP_FIXED + 4;
+		while (i < end) {
+			int code = frame.get(i) & 0xff;
+			if (code == OPTION_END) {
+				break;
+			}
+			if (code == OPTION_PAD) {
+				i++;
+				continue;
+			}
+			if (i + 1 >= end) {
+				break;
+			}
+			int size = frame.get(i + 1) & 0xff;
+			if (code == option) {
+				return size >= length && i + 2 + length <= end ? i + 2 : -1;
+			}
+			i += 2 + size;
+		}
+		return -1;
+	}
+
+	/** @return offset of the BOOTP header, or -1 if the frame is not DHCP */
+	private static int dhcpOffset(ByteBuffer frame) {
+		int base = frame.position();
+		int end = frame.limit();
+		if (end - base < ETH_HEADER) {
+			return -1;
+		}
+		int l3 = base + ETH_HEADER;
+		short etherType = frame.getShort(base + 12);
+		if (etherType == Ethernet.TYPE_VLAN || etherType == Ethernet.TYPE_QINQ) {
+			if (end - l3 < VLAN_TAG) {
+				return -1;
+			}
+			etherType = frame.getShort(l3 + 2);
+			l3 += VLAN_TAG;
+		}
+		if (etherType != Ethernet.TYPE_IPV4 || end - l3 < 20) {
+			return -1;
+		}
+
+		int versionIhl = frame.get(l3) & 0xff;
+		if (versionIhl >> 4 != 4 || frame.get(l3 + 9) != IPv4.PROTOCOL_UDP) {
+			return -1;
+		}
+		//later fragments carry no UDP header
+		if ((frame.getShort(l3 + 6) & 0x1fff) != 0) {
+			return -1;
+		}
+		int l4 = l3 + (versionIhl & 0x0f) * 4;
+		if (end - l4 < UDP_HEADER) {
+			return -1;
+		}
+		int srcPort = frame.getShort(l4) & 0xffff;
+		int dstPort = frame.getShort(l4 + 2) & 0xffff;
+		if (!(srcPort == UDP.DHCP_CLIENT_PORT && dstPort == UDP.DHCP_SERVER_PORT)
+				&& !(srcPort == UDP.DHCP_SERVER_PORT && dstPort == UDP.DHCP_CLIENT_PORT)) {
+			return -1;
+		}
+
+		int dhcp = l4 + UDP_HEADER;
+		if (end - (dhcp + BOOTP_FIXED + 4) < 0 || frame.getInt(dhcp + BOOTP_FIXED) != MAGIC_COOKIE) {
+			return -1;
+		}
+		return dhcp;
+	}
+
+	/** Source MAC of the frame as a long. */
+	public static long srcMac(ByteBuffer frame) {
+		return mac(frame, frame.position() + 6);
+	}
+
+	/** Destination MAC of the frame as a long. */
+	public static long dstMac(ByteBuffer frame) {
+		return mac(frame, frame.position());
+	}
+
+	private static long mac(ByteBuffer frame, int at) {
+		return (frame.getShort(at) & 0xffffL) << 32 | (frame.getInt(at + 2) & 0xffffffffL);
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+/**
+ * One address bound to a client by a DHCP ACK.
+ */
+public final class DhcpLease {
+
+	final int ip;
+	final long mac;
+	private final ConnectPoint location;
+	private final long expiresAt;
+
+	DhcpLease(int ip, long mac, ConnectPoint location, long expiresAt) {
+		this.ip = ip;
+		this.mac = mac;
+		this.location = location;
+		this.expiresAt = expiresAt;
+	}
+
+	public Ip4Address ip() {
+		return Ip4Address.valueOf(ip);
+	}
+
+	public MacAddress mac() {
+		return MacAddress.valueOf(mac);
+	}
+
+	/** @return edge port the client's requests came in on, or null if not seen */
+	public ConnectPoint location() {
+		return location;
+	}
+
+	/** @return expiry in milliseconds since the epoch */
+	public long expiresAt() {
+		return expiresAt;
+	}
+
+	@Override
+	public String toString() {
+		return ip() + " -> " + mac() + " at " + location;
+	}
+}
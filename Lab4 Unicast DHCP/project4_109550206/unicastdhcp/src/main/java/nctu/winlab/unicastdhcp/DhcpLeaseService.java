@@ -0,0 +1,36 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+
+/**
+ * DHCP leases the app has seen handed out, for other apps in the
+ * controller to locate hosts without flooding. Leases are only seen while
+ * the {@code leaseSnooping} property is on, which it is not by default, or
+ * while {@code trackTransactions} has the handshakes copied up anyway; with
+ * both off the aggregate rules keep the ACKs on the switches and no lease
+ * is found.
+ */
+public interface DhcpLeaseService {
+
+	/** @return the current lease of the address, or null */
+	DhcpLease leaseOf(Ip4Address ip);
+
+	/** @return the current lease of the client, or null */
+	DhcpLease leaseOf(MacAddress mac);
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import java.util.List;
+
+/**
+ * Packet-in traces and counters of the unicast DHCP app, for the CLI.
+ */
+public interface DhcpTraceService {
+
+	/** @return the handshake latencies, then the dispatch, server, lease, rule and rate-limit summaries */
+	List<String> traceDump();
+}
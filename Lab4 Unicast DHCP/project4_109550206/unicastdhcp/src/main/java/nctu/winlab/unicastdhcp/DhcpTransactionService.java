@@ -0,0 +1,32 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import java.util.List;
+
+/**
+ * Latencies of the DHCP handshakes the app has seen, for the CLI and the
+ * REST API. Handshakes are only timed while the {@code trackTransactions}
+ * property is on; it is off by default.
+ */
+public interface DhcpTransactionService {
+
+	/** @return latency per handshake stage, then the processing time per packet-in */
+	List<Histogram> transactionLatencies();
+
+	/** @return handshakes started and not finished yet */
+	long openTransactions();
+}
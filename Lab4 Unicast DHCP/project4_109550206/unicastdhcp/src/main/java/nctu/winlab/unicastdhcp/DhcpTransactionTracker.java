@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+
+import org.onlab.packet.DHCP;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the DHCP handshakes the controller sees. A transaction is one
+ * client MAC and xid; the first packet-in of each message stamps it, so a
+ * message punted by several hops counts once. Only the messages that
+ * reach the controller are seen: with aggregate rules, while tracking is
+ * on, the edge switches copy the requests up and the server's switch
+ * copies the replies, both still forwarding them; once per-client rules
+ * are in place, the later stages bypass it. Tracking is off by default.
+ */
+public class DhcpTransactionTracker {
+
+	/** Handshakes left unfinished longer than this are dropped. */
+	private static final long TRANSACTION_SECONDS = 60;
+
+	private static final int DISCOVER = DHCP.MsgType.DHCPDISCOVER.getValue();
+	private static final int OFFER = DHCP.MsgType.DHCPOFFER.getValue();
+	private static final int REQUEST = DHCP.MsgType.DHCPREQUEST.getValue();
+	private static final int ACK = DHCP.MsgType.DHCPACK.getValue();
+	private static final int NAK = DHCP.MsgType.DHCPNAK.getValue();
+
+	private static final class Transaction {
+		final int xid;
+		volatile long discover;
+		volatile long offer;
+		volatile long request;
+
+		Transaction(int xid) {
+			this.xid = xid;
+		}
+	}
+
+	public final Histogram discoverToOffer = new Histogram("DHCP discover to offer", "us");
+	public final Histogram offerToRequest = new Histogram("DHCP offer to request", "us");
+	public final Histogram requestToAck = new Histogram("DHCP request to ack", "us");
+	public final Histogram discoverToAck = new Histogram("DHCP discover to ack", "us");
+	public final Histogram processing = new Histogram("DHCP packet-in processing", "us");
+
+	/** Open transactions by client MAC; a new xid replaces the client's old one. */
+	private final Cache<Long, Transaction> open;
+
+	public DhcpTransactionTracker(long maxSize) {
+		open = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.expireAfterWrite(TRANSACTION_SECONDS, TimeUnit.SECONDS)
+				.build();
+	}
+
+	/**
+	 * Stamps a DHCP message seen at {@code now} (System.nanoTime()).
+	 *
+	 * @param type DHCP message type (option 53)
+	 */
+	public void seen(int type, int xid, long client, long now) {
+		if (type == DISCOVER) {
+			Transaction t = open.getIfPresent(client);
+			if (t == null || t.xid != xid) {
+				t = new Transaction(xid);
+				t.discover = now;
+				open.put(client, t);
+			}
+			return;
+		}
+		Transaction t = open.getIfPresent(client);
+		if (type == REQUEST && (t == null || t.xid != xid)) {
+			//renewals and INIT-REBOOT start at the request
+			t = new Transaction(xid);
+			t.request = now;
+			open.put(client, t);
+			return;
+		}
+		if (t == null || t.xid != xid) {
+			return;
+		}
+		if (type == OFFER) {
+			if (t.offer == 0 && t.discover != 0) {
+				t.offer = now;
+				discoverToOffer.record(micros(now - t.discover));
+			}
+		} else if (type == REQUEST) {
+			if (t.request == 0) {
+				t.request = now;
+				if (t.offer != 0) {
+					offerToRequest.record(micros(now - t.offer));
+				}
+			}
+		} else if (type == ACK || type == NAK) {
+			if (t.request != 0) {
+				requestToAck.record(micros(now - t.request));
+			}
+			if (t.discover != 0) {
+				discoverToAck.record(micros(now - t.discover));
+			}
+			open.asMap().remove(client, t);
+		}
+	}
+
+	/** Records the time one DHCP packet-in spent in the processor. */
+	public void processed(long startNanos, long endNanos) {
+		processing.record(micros(endNanos - startNanos));
+	}
+
+	public long openTransactions() {
+		open.cleanUp();
+		return open.size();
+	}
+
+	private static long micros(long nanos) {
+		return nanos / 1000;
+	}
+
+	/** Latency per handshake stage, then the processing time per packet-in. */
+	public List<Histogram> histograms() {
+		return ImmutableList.of(discoverToOffer, offerToRequest, requestToAck, discoverToAck, processing);
+	}
+
+	public List<String> dump() {
+		ImmutableList.Builder<String> lines = ImmutableList.builder();
+		histograms().forEach(h -> lines.add(h.toString()));
+		return lines.add("DHCP transactions open: " + openTransactions()).build();
+	}
+
+	public void clear() {
+		open.invalidateAll();
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram with power-of-two buckets: bucket {@code b} counts
+ * values in [2^(b-1), 2^b), bucket 0 counts zero.
+ */
+public class Histogram {
+
+	private final String name;
+	private final String unit;
+	private final AtomicLongArray buckets = new AtomicLongArray(65);
+
+	public Histogram(String name, String unit) {
+		this.name = name;
+		this.unit = unit;
+	}
+
+	public String name() {
+		return name;
+	}
+
+	public String unit() {
+		return unit;
+	}
+
+	public void record(long value) {
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(value, 0)));
+	}
+
+	public long count() {
+		long n = 0;
+		for (int b = 0; b < buckets.length(); b++) {
+			n += buckets.get(b);
+		}
+		return n;
+	}
+
+	/** Upper bound of the bucket holding the given quantile (0..1). */
+	public long quantile(double q) {
+		long total = count();
+		long seen = 0;
+		for (int b = 0; b < buckets.length(); b++) {
+			seen += buckets.get(b);
+			if (total > 0 && seen >= Math.ceil(q * total)) {
+				return b == 0 ? 0 : (b >= 63 ? Long.MAX_VALUE : (1L << b) - 1);
+			}
+		}
+		return 0;
+	}
+
+	/** Count and bucket bounds of the quantiles {@link #toString} prints, for the REST API and CLI. */
+	public ObjectNode toJson(ObjectMapper mapper) {
+		return mapper.createObjectNode()
+				.put("name", name)
+				.put("unit", unit)
+				.put("count", count())
+				.put("p50", quantile(0.5))
+				.put("p99", quantile(0.99))
+				.put("max", quantile(1.0));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(name).append(" (").append(unit).append("): n=").append(count())
+				.append(" p50<=").append(quantile(0.5))
+				.append(" p99<=").append(quantile(0.99))
+				.append(" max<=").append(quantile(1.0));
+		for (int b = 0; b < buckets.length(); b++) {
+			long n = buckets.get(b);
+			if (n != 0) {
+				sb.append(" [<").append(b >= 63 ? "inf" : String.valueOf(1L << b)).append(']').append('=').append(n);
+			}
+		}
+		return sb.toString();
+	}
+}
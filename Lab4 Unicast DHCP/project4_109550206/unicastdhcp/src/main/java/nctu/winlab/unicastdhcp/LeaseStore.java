@@ -0,0 +1,239 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snooped DHCP leases, indexed by address and by client MAC. Lookups read
+ * the two concurrent maps without locking; binds and removals keep them in
+ * step under the store's lock. Expiry runs on a timer wheel of one-second
+ * slots: each tick looks only at the leases in its slot, and a lease
+ * further out than one turn of the wheel is kept for a later turn. The
+ * leases survive restarts through a small binary snapshot.
+ */
+public class LeaseStore {
+
+	private static final long TICK_MILLIS = 1000;
+	private static final int WHEEL_SLOTS = 1024;
+	/** How long the port a client's request came in on is remembered for its ACK. */
+	private static final long CLIENT_PORT_SECONDS = 60;
+	private static final int SNAPSHOT_MAGIC = 0x44484c53;
+	private static final int SNAPSHOT_VERSION = 1;
+
+	private final Map<Integer, DhcpLease> byIp = Maps.newConcurrentMap();
+	private final Map<Long, DhcpLease> byMac = Maps.newConcurrentMap();
+	private final List<Set<DhcpLease>> wheel = Lists.newArrayListWithCapacity(WHEEL_SLOTS);
+	private final Cache<Long, ConnectPoint> clientPorts;
+	/** Last tick expired; -1 before the first. */
+	private long tick = -1;
+
+	public LeaseStore(long maxClients) {
+		for (int i = 0; i < WHEEL_SLOTS; i++) {
+			wheel.add(Sets.newConcurrentHashSet());
+		}
+		clientPorts = CacheBuilder.newBuilder()
+				.maximumSize(maxClients)
+				.expireAfterWrite(CLIENT_PORT_SECONDS, TimeUnit.SECONDS)
+				.build();
+	}
+
+	/** Remembers the edge port a client's DISCOVER or REQUEST came in on. */
+	public void clientAt(long mac, ConnectPoint location) {
+		clientPorts.put(mac, location);
+	}
+
+	/** Records an ACK; the client's and the address's previous leases are dropped. */
+	public synchronized DhcpLease bind(int ip, long mac, long leaseSeconds, long now) {
+		ConnectPoint location = clientPorts.getIfPresent(mac);
+		if (location == null) {
+			DhcpLease old = byMac.get(mac);
+			location = old == null ? null : old.location();
+		}
+		return put(new DhcpLease(ip, mac, location, now + leaseSeconds * 1000));
+	}
+
+	private DhcpLease put(DhcpLease lease) {
+		int ip = lease.ip;
+		long mac = lease.mac;
+		DhcpLease oldOfMac = byMac.put(mac, lease);
+		if (oldOfMac != null && oldOfMac.ip != ip) {
+			byIp.remove(oldOfMac.ip, oldOfMac);
+		}
+		DhcpLease oldOfIp = byIp.put(ip, lease);
+		if (oldOfIp != null && oldOfIp.mac != mac) {
+			byMac.remove(oldOfIp.mac, oldOfIp);
+		}
+		//slot of the first tick at or after the expiry; replaced leases stay
+		//in the wheel until their slot comes up
+		wheel.get(slot(lease.expiresAt() + TICK_MILLIS - 1)).add(lease);
+		return lease;
+	}
+
+	/** Drops the client's lease on a DHCPRELEASE. */
+	public synchronized void release(long mac) {
+		DhcpLease lease = byMac.remove(mac);
+		if (lease != null) {
+			byIp.remove(lease.ip, lease);
+		}
+	}
+
+	public DhcpLease byIp(int ip) {
+		return byIp.get(ip);
+	}
+
+	public DhcpLease byMac(long mac) {
+		return byMac.get(mac);
+	}
+
+	/** Expires the leases of every slot passed since the last call. */
+	public synchronized int expire(long now) {
+		long current = now / TICK_MILLIS;
+		if (tick < 0 || current - tick > WHEEL_SLOTS) {
+			tick = current - WHEEL_SLOTS;
+		}
+		int expired = 0;
+		for (; tick < current; tick++) {
+			Iterator<DhcpLease> it = wheel.get(slot((tick + 1) * TICK_MILLIS)).iterator();
+			while (it.hasNext()) {
+				DhcpLease lease = it.next();
+				boolean live = byMac.get(lease.mac) == lease;
+				if (live && lease.expiresAt() > now) {
+					continue;
+				}
+				it.remove();
+				if (live) {
+					byMac.remove(lease.mac, lease);
+					byIp.remove(lease.ip, lease);
+					expired++;
+				}
+			}
+		}
+		return expired;
+	}
+
+	private static int slot(long millis) {
+		return (int) Math.floorMod(millis / TICK_MILLIS, (long) WHEEL_SLOTS);
+	}
+
+	public int size() {
+		return byMac.size();
+	}
+
+	/**
+	 * Writes the leases to the file, replacing it only once complete. The
+	 * devices are written once and the leases refer to them by index.
+	 */
+	public void save(File file) throws IOException {
+		List<DhcpLease> snapshot = Lists.newArrayList(byMac.values());
+		Map<DeviceId, Integer> devices = Maps.newLinkedHashMap();
+		for (DhcpLease lease : snapshot) {
+			if (lease.location() != null) {
+				devices.putIfAbsent(lease.location().deviceId(), devices.size());
+			}
+		}
+		file.getParentFile().mkdirs();
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(SNAPSHOT_VERSION);
+			out.writeInt(devices.size());
+			for (DeviceId deviceId : devices.keySet()) {
+				out.writeUTF(deviceId.toString());
+			}
+			out.writeInt(snapshot.size());
+			for (DhcpLease lease : snapshot) {
+				out.writeInt(lease.ip);
+				out.writeLong(lease.mac);
+				out.writeLong(lease.expiresAt());
+				ConnectPoint location = lease.location();
+				out.writeInt(location == null ? -1 : devices.get(location.deviceId()));
+				out.writeLong(location == null ? 0 : location.port().toLong());
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Adds the leases of a snapshot written by {@link #save}, skipping those
+	 * expired by {@code now}.
+	 *
+	 * @return number of leases loaded
+	 */
+	public synchronized int load(File file, long now) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+				throw new IOException("not a lease snapshot: " + file);
+			}
+			DeviceId[] devices = new DeviceId[in.readInt()];
+			for (int i = 0; i < devices.length; i++) {
+				devices[i] = DeviceId.deviceId(in.readUTF());
+			}
+			int count = in.readInt();
+			int loaded = 0;
+			for (int i = 0; i < count; i++) {
+				int ip = in.readInt();
+				long mac = in.readLong();
+				long expiresAt = in.readLong();
+				int device = in.readInt();
+				long port = in.readLong();
+				if (expiresAt <= now || byMac.containsKey(mac)) {
+					continue;
+				}
+				ConnectPoint location = device < 0 ? null : new ConnectPoint(devices[device], PortNumber.portNumber(port));
+				put(new DhcpLease(ip, mac, location, expiresAt));
+				loaded++;
+			}
+			return loaded;
+		}
+	}
+
+	public void clear() {
+		byIp.clear();
+		byMac.clear();
+		wheel.forEach(Set::clear);
+		clientPorts.invalidateAll();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("DHCP leases: %d snooped", size());
+	}
+}
@@ -15,19 +15,37 @@
  */
 package nctu.winlab.unicastdhcp;
 
+import com.google.common.collect.ImmutableList;
+
 import org.onosproject.core.ApplicationId;
+import org.onosproject.net.ConnectPoint;
 import org.onosproject.net.config.Config;
 
+import java.util.List;
+
 public class LocationConfig extends Config<ApplicationId> {
 
   public static final String LOCATION = "serverLocation";
+  public static final String LOCATIONS = "serverLocations";
 
   @Override
   public boolean isValid() {
-    return hasOnlyFields(LOCATION);
+    return hasOnlyFields(LOCATION, LOCATIONS) && (hasField(LOCATION) || hasField(LOCATIONS));
   }
 
   public String name() {
     return get(LOCATION, null);
   }
+
+  /**
+   * Connect points of all DHCP servers: the serverLocations array, or the
+   * single serverLocation.
+   */
+  public List<ConnectPoint> servers() {
+    if (hasField(LOCATIONS)) {
+      return getList(LOCATIONS, ConnectPoint::deviceConnectPoint);
+    }
+    String location = name();
+    return location == null ? ImmutableList.of() : ImmutableList.of(ConnectPoint.deviceConnectPoint(location));
+  }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+/**
+ * Constants for default values of configurable properties.
+ */
+public final class OsgiPropertyConstants {
+
+	private OsgiPropertyConstants() {
+	}
+
+	public static final String PACKET_WORKERS = "packetWorkers";
+	public static final int PACKET_WORKERS_DEFAULT = 0;
+
+	public static final String PACKET_QUEUE_SIZE = "packetQueueSize";
+	public static final int PACKET_QUEUE_SIZE_DEFAULT = 1024;
+
+	public static final String PROACTIVE_PATH = "proactivePath";
+	public static final boolean PROACTIVE_PATH_DEFAULT = false;
+
+	public static final String DHCP_RULE_MODE = "dhcpRuleMode";
+	public static final String DHCP_RULE_MODE_AGGREGATE = "aggregate";
+	public static final String DHCP_RULE_MODE_PER_CLIENT = "perClient";
+	/** Aggregate rules with one server, per-client rules once the ring has several to spread the clients over. */
+	public static final String DHCP_RULE_MODE_AUTO = "auto";
+	public static final String DHCP_RULE_MODE_DEFAULT = DHCP_RULE_MODE_AUTO;
+
+	public static final String CLIENT_RULE_CAPACITY = "clientRuleCapacity";
+	public static final int CLIENT_RULE_CAPACITY_DEFAULT = 65536;
+
+	public static final String CLIENT_RATE_LIMIT = "clientRateLimit";
+	public static final int CLIENT_RATE_LIMIT_DEFAULT = 0;
+
+	public static final String PORT_RATE_LIMIT = "portRateLimit";
+	public static final int PORT_RATE_LIMIT_DEFAULT = 0;
+
+	public static final String OFFENDER_BLOCK_TIME = "offenderBlockTime";
+	public static final int OFFENDER_BLOCK_TIME_DEFAULT = 0;
+
+	public static final String LEASE_SNOOPING = "leaseSnooping";
+	public static final boolean LEASE_SNOOPING_DEFAULT = false;
+
+	public static final String WARM_RESTART = "warmRestart";
+	public static final boolean WARM_RESTART_DEFAULT = false;
+
+	public static final String TRACK_TRANSACTIONS = "trackTransactions";
+	public static final boolean TRACK_TRANSACTIONS_DEFAULT = false;
+}
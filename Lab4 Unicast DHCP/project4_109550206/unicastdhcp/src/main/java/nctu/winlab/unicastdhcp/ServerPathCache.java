@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import com.google.common.collect.Maps;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
+import org.onosproject.net.topology.PathService;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shortest path from every device towards each DHCP server's device,
+ * computed once and kept until a link on it goes away. Devices with no
+ * path are not cached, so they are retried on the next lookup.
+ */
+public class ServerPathCache {
+
+	private final PathService pathService;
+	/** Paths by server device, then by source device. */
+	private final Map<DeviceId, Map<DeviceId, Path>> paths = Maps.newConcurrentMap();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	public ServerPathCache(PathService pathService) {
+		this.pathService = pathService;
+	}
+
+	/** Points the cache at a new set of server devices, dropping the paths to any other. */
+	public void setServers(Collection<DeviceId> servers) {
+		paths.keySet().retainAll(servers);
+		for (DeviceId server : servers) {
+			paths.computeIfAbsent(server, k -> Maps.newConcurrentMap());
+		}
+	}
+
+	/** Computes the paths of the given devices ahead of their first DHCP packet. */
+	public void warm(Iterable<DeviceId> devices) {
+		for (DeviceId server : paths.keySet()) {
+			for (DeviceId deviceId : devices) {
+				path(deviceId, server);
+			}
+		}
+	}
+
+	/**
+	 * @return path from the device to the server, or null when the device is
+	 *         the server, the server is unknown or no path exists
+	 */
+	public Path path(DeviceId deviceId, DeviceId server) {
+		Map<DeviceId, Path> toServer = paths.get(server);
+		if (toServer == null || server.equals(deviceId)) {
+			return null;
+		}
+		Path path = toServer.get(deviceId);
+		if (path != null) {
+			hits.increment();
+			return path;
+		}
+		misses.increment();
+		path = compute(deviceId, server);
+		if (path != null && paths.get(server) == toServer) {
+			toServer.put(deviceId, path);
+		}
+		return path;
+	}
+
+	private Path compute(DeviceId from, DeviceId to) {
+		Set<Path> candidates = pathService.getPaths(from, to);
+		for (Path candidate : candidates) {
+			if (candidate.links() != null && !candidate.links().isEmpty()) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/** Drops the paths running over a link that went down. */
+	public void linkRemoved(Link link) {
+		for (Map<DeviceId, Path> toServer : paths.values()) {
+			toServer.values().removeIf(path -> {
+				for (Link l : path.links()) {
+					if (l.src().equals(link.src()) && l.dst().equals(link.dst())) {
+						invalidations.increment();
+						return true;
+					}
+				}
+				return false;
+			});
+		}
+	}
+
+	/** Drops the paths of a device that left the topology, or all paths to it. */
+	public void deviceRemoved(DeviceId deviceId) {
+		for (Map.Entry<DeviceId, Map<DeviceId, Path>> e : paths.entrySet()) {
+			if (e.getKey().equals(deviceId)) {
+				e.getValue().clear();
+			} else if (e.getValue().remove(deviceId) != null) {
+				invalidations.increment();
+			}
+		}
+	}
+
+	public int size() {
+		int n = 0;
+		for (Map<DeviceId, Path> toServer : paths.values()) {
+			n += toServer.size();
+		}
+		return n;
+	}
+
+	public void clear() {
+		paths.clear();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("server paths: %d cached to %d servers, %d hits, %d misses, %d invalidated",
+				size(), paths.size(), hits.sum(), misses.sum(), invalidations.sum());
+	}
+}
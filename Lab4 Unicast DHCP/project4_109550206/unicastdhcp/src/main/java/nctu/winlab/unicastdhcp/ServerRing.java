@@ -0,0 +1,134 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Consistent hash ring of the DHCP servers. Each server owns a number of
+ * points on the ring and a client MAC goes to the owner of the next point
+ * clockwise, so a client keeps its server across renewals, and when a
+ * server goes down only its own clients move to the next healthy server.
+ */
+public class ServerRing {
+
+	/** Ring points per server, to spread the clients evenly. */
+	private static final int POINTS_PER_SERVER = 64;
+	private static final HashFunction HASH = Hashing.murmur3_32();
+
+	/** Ring and servers, replaced together. */
+	private static final class Ring {
+		final List<ConnectPoint> servers;
+		/** Point hash in the upper 32 bits, server index in the lower, sorted. */
+		final long[] points;
+
+		Ring(List<ConnectPoint> servers, long[] points) {
+			this.servers = servers;
+			this.points = points;
+		}
+	}
+
+	private volatile Ring ring = new Ring(ImmutableList.of(), new long[0]);
+	private final Set<ConnectPoint> down = Sets.newConcurrentHashSet();
+
+	/** Replaces the servers; health of servers kept in the list is kept. */
+	public void setServers(List<ConnectPoint> servers) {
+		List<ConnectPoint> list = ImmutableList.copyOf(servers);
+		long[] points = new long[list.size() * POINTS_PER_SERVER];
+		int n = 0;
+		for (int i = 0; i < list.size(); i++) {
+			String name = list.get(i).toString();
+			for (int p = 0; p < POINTS_PER_SERVER; p++) {
+				long hash = HASH.hashString(name + "#" + p, StandardCharsets.UTF_8).asInt() & 0xffffffffL;
+				points[n++] = hash << 32 | i;
+			}
+		}
+		Arrays.sort(points);
+		down.retainAll(list);
+		ring = new Ring(list, points);
+	}
+
+	public List<ConnectPoint> servers() {
+		return ring.servers;
+	}
+
+	/**
+	 * @return the first healthy server clockwise of the client, its own
+	 *         server if none is healthy, or null if there are no servers
+	 */
+	public ConnectPoint serverFor(MacAddress client) {
+		Ring r = ring;
+		if (r.points.length == 0) {
+			return null;
+		}
+		long hash = HASH.hashLong(client.toLong()).asInt() & 0xffffffffL;
+		int start = Arrays.binarySearch(r.points, hash << 32);
+		if (start < 0) {
+			start = -start - 1;
+		}
+		for (int k = 0; k < r.points.length; k++) {
+			ConnectPoint server = r.servers.get((int) r.points[(start + k) % r.points.length]);
+			if (!down.contains(server)) {
+				return server;
+			}
+		}
+		return r.servers.get((int) r.points[start % r.points.length]);
+	}
+
+	/**
+	 * @return the first healthy server in configuration order, the first
+	 *         server if none is healthy, or null if there are no servers
+	 */
+	public ConnectPoint primary() {
+		List<ConnectPoint> servers = ring.servers;
+		for (ConnectPoint server : servers) {
+			if (!down.contains(server)) {
+				return server;
+			}
+		}
+		return servers.isEmpty() ? null : servers.get(0);
+	}
+
+	/** @return true if the server was up and configured */
+	public boolean markDown(ConnectPoint server) {
+		return ring.servers.contains(server) && down.add(server);
+	}
+
+	/** @return true if the server was down */
+	public boolean markUp(ConnectPoint server) {
+		return down.remove(server);
+	}
+
+	public boolean isDown(ConnectPoint server) {
+		return down.contains(server);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("DHCP servers: %s, down: %s", ring.servers, down);
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size, lock-free count-min table of token buckets. Keys are not
+ * stored: a key draws from one bucket in each of {@link #ROWS} rows, each
+ * bucket packed into a long as the last refill time in milliseconds and
+ * the tokens in thousandths, and is refused once all of them are empty.
+ * A key never seen before shares the buckets it hashes to rather than
+ * getting full ones, so a flood of rotating keys drains the table and is
+ * limited once it outruns the rate times the number of buckets; a key
+ * under its rate is only refused if each of its buckets is shared with
+ * keys over theirs.
+ */
+public class TokenBucketTable {
+
+	static final int ROWS = 4;
+	private static final int TOKEN_BITS = 20;
+	private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+	private static final long ONE = 1000;
+	/** Most tokens a bucket holds: the tokens share the bucket's long with the refill time. */
+	public static final int MAX_BURST = (int) (TOKEN_MASK / ONE);
+
+	private final AtomicLongArray buckets;
+	private final int width;
+	private final long ratePerSecond;
+	private final long capacity;
+	private final long epoch = System.currentTimeMillis();
+
+	private final LongAdder limited = new LongAdder();
+
+	/**
+	 * @param slots number of buckets over all rows, rounded up to a power of two per row
+	 * @param ratePerSecond tokens added per second
+	 * @param burst bucket size in tokens; larger bursts are cut to {@link #MAX_BURST}
+	 */
+	public TokenBucketTable(int slots, int ratePerSecond, int burst) {
+		this.width = Integer.highestOneBit(Math.max(slots / ROWS - 1, 1)) << 1;
+		this.buckets = new AtomicLongArray(ROWS * width);
+		this.ratePerSecond = ratePerSecond;
+		this.capacity = Math.min(Math.max(burst, 1), MAX_BURST) * ONE;
+		for (int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, capacity);
+		}
+	}
+
+	/**
+	 * Takes one token from each of the key's buckets that has one.
+	 *
+	 * @return false if the key, or the keys sharing all its buckets, are over the rate
+	 */
+	public boolean tryAcquire(long key) {
+		long hash = mix(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		long now = System.currentTimeMillis() - epoch;
+		//the key is over its rate only if every row says so, as a count-min estimate
+		boolean any = false;
+		for (int row = 0; row < ROWS; row++) {
+			any |= take(slot(h1, h2, row), now);
+		}
+		if (!any) {
+			limited.increment();
+		}
+		return any;
+	}
+
+	private int slot(int h1, int h2, int row) {
+		return row * width + ((h1 + row * h2) & (width - 1));
+	}
+
+	private long tokens(long bucket, long now) {
+		long elapsed = Math.max(now - (bucket >>> TOKEN_BITS), 0);
+		//rate per second is rate thousandths per millisecond
+		return Math.min(capacity, (bucket & TOKEN_MASK) + elapsed * ratePerSecond);
+	}
+
+	// returns false, leaving the bucket alone, if it has no whole token
+	private boolean take(int slot, long now) {
+		while (true) {
+			long bucket = buckets.get(slot);
+			long last = bucket >>> TOKEN_BITS;
+			long tokens = tokens(bucket, now);
+			if (tokens < ONE) {
+				return false;
+			}
+			if (buckets.compareAndSet(slot, bucket, Math.max(now, last) << TOKEN_BITS | (tokens - ONE))) {
+				return true;
+			}
+		}
+	}
+
+	private static long mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	/** Packets refused so far. */
+	public long limited() {
+		return limited.sum();
+	}
+
+	public int slots() {
+		return buckets.length();
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp.cli;
+
+import nctu.winlab.unicastdhcp.DhcpTraceService;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onosproject.cli.AbstractShellCommand;
+
+/**
+ * Prints the packet-in trace and counters of the unicast DHCP app.
+ */
+@Service
+@Command(scope = "onos", name = "dhcp-trace",
+		description = "Prints the packet-in trace and counters of the unicast DHCP app")
+public class DhcpTraceCommand extends AbstractShellCommand {
+
+	@Override
+	protected void doExecute() {
+		for (String line : get(DhcpTraceService.class).traceDump()) {
+			print("%s", line);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp.cli;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import nctu.winlab.unicastdhcp.DhcpTransactionService;
+import nctu.winlab.unicastdhcp.Histogram;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onosproject.cli.AbstractShellCommand;
+
+/**
+ * Shows the latency of each DHCP handshake stage the unicast DHCP app has seen.
+ */
+@Service
+@Command(scope = "onos", name = "dhcp-transactions",
+		description = "Shows the DHCP handshake latencies seen by the unicast DHCP app")
+public class DhcpTransactionsCommand extends AbstractShellCommand {
+
+	@Override
+	protected void doExecute() {
+		DhcpTransactionService service = get(DhcpTransactionService.class);
+		if (outputJson()) {
+			ObjectMapper mapper = new ObjectMapper();
+			ObjectNode root = mapper.createObjectNode();
+			ArrayNode stages = root.putArray("latencies");
+			for (Histogram h : service.transactionLatencies()) {
+				stages.add(h.toJson(mapper));
+			}
+			root.put("open", service.openTransactions());
+			print("%s", root);
+			return;
+		}
+		for (Histogram h : service.transactionLatencies()) {
+			print("%s", h);
+		}
+		print("DHCP transactions open: %d", service.openTransactions());
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp.rest;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import nctu.winlab.unicastdhcp.DhcpTransactionService;
+import nctu.winlab.unicastdhcp.Histogram;
+
+import org.onosproject.rest.AbstractWebResource;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * DHCP handshake statistics of the unicast DHCP app.
+ */
+@Path("")
+public class DhcpWebResource extends AbstractWebResource {
+
+	/**
+	 * Gets the latency of each DHCP handshake stage and the number of
+	 * handshakes still open.
+	 *
+	 * @return 200 OK with the latencies
+	 */
+	@GET
+	@Path("transactions")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getTransactions() {
+		DhcpTransactionService service = get(DhcpTransactionService.class);
+		ObjectNode root = mapper().createObjectNode();
+		ArrayNode stages = root.putArray("latencies");
+		for (Histogram h : service.transactionLatencies()) {
+			stages.add(h.toJson(mapper()));
+		}
+		root.put("open", service.openTransactions());
+		return ok(root).build();
+	}
+}
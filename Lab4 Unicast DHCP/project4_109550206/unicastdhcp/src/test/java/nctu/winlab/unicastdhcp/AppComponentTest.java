@@ -15,37 +15,339 @@
  */
 package nctu.winlab.unicastdhcp;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
-import org.onosproject.cfg.ComponentConfigService;
+import org.junit.rules.TemporaryFolder;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.TpPort;
+import org.onlab.packet.UDP;
 import org.onosproject.cfg.ComponentConfigAdapter;
-import org.onosproject.cfg.ConfigProperty;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreService;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Port;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.config.NetworkConfigRegistry;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.edge.EdgePortService;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.packet.PacketService;
+import org.onosproject.net.topology.PathService;
+import org.onosproject.net.topology.TopologyService;
+import org.osgi.service.component.ComponentContext;
 
+import java.io.File;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
 import java.util.Set;
 
+import static nctu.winlab.unicastdhcp.OsgiPropertyConstants.WARM_RESTART;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 /**
- * Set of tests of the ONOS application component.
+ * Set of tests of the ONOS application component. The ONOS services are
+ * dynamic proxies that record the calls made to them and answer with
+ * empty values, except for the flow rules a test leaves on the switches.
  */
 public class AppComponentTest {
 
+    private static final ApplicationId APP_ID = new DefaultApplicationId(1, "nctu.winlab.unicastdhcp");
+    private static final DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+    private static final MacAddress CLIENT = MacAddress.valueOf("02:00:00:00:00:01");
+    private static final Ip4Address CLIENT_IP = Ip4Address.valueOf("10.0.0.10");
+    private static final int PRIORITY = 30;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String karafData;
     private AppComponent component;
+    private Dictionary<String, Object> properties;
+
+    /** Calls made to the stubbed services, as "Service.method". */
+    private final List<String> calls = new ArrayList<>();
+    /** Flow entries the stubbed flow rule service reports as installed. */
+    private final List<FlowEntry> installed = new ArrayList<>();
+    /** Flow rules removed through the stubbed flow rule service. */
+    private final List<FlowRule> removed = new ArrayList<>();
+    /** DHCP servers in the network config; none means there is no config. */
+    private List<ConnectPoint> servers = ImmutableList.of();
+    /** Devices the stubbed device service reports as unavailable. */
+    private final Set<DeviceId> unavailable = new HashSet<>();
 
     @Before
     public void setUp() {
-        component = new AppComponent();
-        component.cfgService = new ComponentConfigAdapter();
-        component.activate();
+        //the lease snapshot goes under karaf.data, read when the component is built
+        karafData = System.getProperty("karaf.data");
+        System.setProperty("karaf.data", folder.getRoot().getPath());
+        properties = new Hashtable<>();
+        component = activate();
     }
 
     @After
     public void tearDown() {
+        if (component != null) {
+            component.deactivate();
+        }
+        if (karafData == null) {
+            System.clearProperty("karaf.data");
+        } else {
+            System.setProperty("karaf.data", karafData);
+        }
+    }
+
+    private AppComponent activate() {
+        AppComponent app = new AppComponent();
+        app.cfgService = new ComponentConfigAdapter();
+        app.ncfgService = stub(NetworkConfigRegistry.class);
+        app.coreService = stub(CoreService.class);
+        app.packetService = stub(PacketService.class);
+        app.flowRuleService = stub(FlowRuleService.class);
+        app.pathService = stub(PathService.class);
+        app.topologyService = stub(TopologyService.class);
+        app.eptService = stub(EdgePortService.class);
+        app.deviceService = stub(DeviceService.class);
+        app.activate(stub(ComponentContext.class));
+        return app;
+    }
+
+    private <T> T stub(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return objectMethod(proxy, method, args);
+                    }
+                    calls.add(type.getSimpleName() + "." + method.getName());
+                    return answer(method, args);
+                }));
+    }
+
+    private static Object objectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "stub";
+        }
+    }
+
+    private Object answer(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "registerApplication":
+                return APP_ID;
+            case "getProperties":
+                return properties;
+            case "getFlowEntriesById":
+                return ImmutableList.copyOf(installed);
+            case "getConfig":
+                return servers.isEmpty() ? null : new LocationConfig() {
+                    @Override
+                    public List<ConnectPoint> servers() {
+                        return servers;
+                    }
+                };
+            case "isAvailable":
+                return !unavailable.contains(args[0]);
+            case "isEnabled":
+                return true;
+            case "getPort":
+                return stub(Port.class);
+            case "removeFlowRules":
+                removed.addAll(Arrays.asList((FlowRule[]) args[0]));
+                return null;
+            default:
+                return empty(method.getReturnType());
+        }
+    }
+
+    private static Object empty(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type.isAssignableFrom(ImmutableSet.class)) {
+            return ImmutableSet.of();
+        } else if (type.isAssignableFrom(ImmutableList.class)) {
+            return ImmutableList.of();
+        }
+        return null;
+    }
+
+    private void restart() {
         component.deactivate();
+        component = activate();
+    }
+
+    /** A rule for one client's requests, as the per-client mode installs them. */
+    private static FlowRule perClientRule(MacAddress client) {
+        return DefaultFlowRule.builder()
+                .forDevice(DEVICE)
+                .withSelector(DefaultTrafficSelector.builder().matchEthSrc(client).build())
+                .withTreatment(DefaultTrafficTreatment.builder().setOutput(PortNumber.portNumber(1)).build())
+                .withPriority(PRIORITY)
+                .makeTemporary(30)
+                .fromApp(APP_ID)
+                .build();
+    }
+
+    /** A request rule of the aggregate mode. */
+    private static FlowRule aggregateRule() {
+        TrafficSelector selector = DefaultTrafficSelector.builder()
+                .matchInPort(PortNumber.portNumber(3))
+                .matchEthType(Ethernet.TYPE_IPV4)
+                .matchIPProtocol(IPv4.PROTOCOL_UDP)
+                .matchUdpSrc(TpPort.tpPort(UDP.DHCP_CLIENT_PORT))
+                .matchUdpDst(TpPort.tpPort(UDP.DHCP_SERVER_PORT))
+                .build();
+        return DefaultFlowRule.builder()
+                .forDevice(DEVICE)
+                .withSelector(selector)
+                .withTreatment(DefaultTrafficTreatment.builder().setOutput(PortNumber.portNumber(1)).build())
+                .withPriority(PRIORITY)
+                .makePermanent()
+                .fromApp(APP_ID)
+                .build();
     }
 
     @Test
-    public void basics() {
+    public void activateRegistersWithTheServices() {
+        assertTrue(calls.contains("CoreService.registerApplication"));
+        assertTrue(calls.contains("PacketService.addProcessor"));
+        assertTrue(calls.contains("FlowRuleService.addListener"));
+        assertTrue(calls.contains("NetworkConfigRegistry.registerConfigFactory"));
+        assertTrue(calls.contains("FlowRuleService.getFlowEntriesById"));
+        assertNull(component.leaseOf(CLIENT));
+        assertNotNull(component.transactionLatencies());
+        assertEquals(0, component.openTransactions());
+    }
+
+    @Test
+    public void traceDumpEndsWithTheRuleAndRateLimitReports() {
+        List<String> lines = component.traceDump();
+        assertEquals("DHCP rules: 0 aggregate, 0 per-client for 0 clients (0 evicted at capacity 65536)",
+                lines.get(lines.size() - 2));
+        assertTrue(lines.get(lines.size() - 1).startsWith("DHCP rate limits: 0/s per client"));
+    }
+
+    @Test
+    public void coldStopRemovesTheRulesAndForgetsTheLeases() {
+        component.leases.bind(CLIENT_IP.toInt(), CLIENT.toLong(), 3600, System.currentTimeMillis());
+        calls.clear();
+        restart();
+        assertTrue(calls.contains("FlowRuleService.removeFlowRulesById"));
+        //no packet-in is handled once the rules are gone
+        assertTrue(calls.indexOf("PacketService.removeProcessor") < calls.indexOf("FlowRuleService.removeFlowRulesById"));
+        assertNull(component.leaseOf(CLIENT));
+        assertFalse(new File(folder.getRoot(), "nctu.winlab.unicastdhcp/leases.bin").exists());
+    }
+
+    @Test
+    public void warmRestartRestoresLeasesAndRemovesStaleRules() {
+        properties.put(WARM_RESTART, "true");
+        component.modified(stub(ComponentContext.class));
+        component.leases.bind(CLIENT_IP.toInt(), CLIENT.toLong(), 3600, System.currentTimeMillis());
+        //a lease already over is not brought back
+        component.leases.bind(Ip4Address.valueOf("10.0.0.11").toInt(), 0x020000000002L, 0, System.currentTimeMillis());
+
+        //the rules left on the switches: one of the aggregate mode in use, and
+        //one of the per-client mode that is not
+        FlowRule aggregate = aggregateRule();
+        FlowRule stale = perClientRule(CLIENT);
+        installed.add(new DefaultFlowEntry(aggregate));
+        installed.add(new DefaultFlowEntry(stale));
+        calls.clear();
+        restart();
 
+        assertFalse(calls.contains("FlowRuleService.removeFlowRulesById"));
+        DhcpLease lease = component.leaseOf(CLIENT);
+        assertNotNull(lease);
+        assertEquals(CLIENT_IP, lease.ip());
+        assertEquals(lease, component.leaseOf(CLIENT_IP));
+        assertNull(component.leaseOf(MacAddress.valueOf(0x020000000002L)));
+
+        assertEquals(ImmutableList.of(stale), removed);
+        assertFalse(removed.contains(aggregate));
+        assertEquals(1, component.aggregateRules.size());
+    }
+
+    @Test
+    public void warmRestartWithSeveralServersKeepsThePerClientRules() {
+        //auto mode uses per-client rules for more than one server, so the
+        //servers must be known before the rules left behind are sorted out
+        servers = ImmutableList.of(ConnectPoint.deviceConnectPoint("of:0000000000000001/1"),
+                ConnectPoint.deviceConnectPoint("of:0000000000000002/1"));
+        properties.put(WARM_RESTART, "true");
+        component.modified(stub(ComponentContext.class));
+        FlowRule perClient = perClientRule(CLIENT);
+        installed.add(new DefaultFlowEntry(perClient));
+        restart();
+
+        assertFalse(removed.contains(perClient));
+        assertNotNull(component.ToSever_rule_table.get(DEVICE, CLIENT));
     }
 
+    @Test
+    public void lostServerOnlyTakesTheRulesOfItsOwnClients() {
+        ConnectPoint first = ConnectPoint.deviceConnectPoint("of:0000000000000001/1");
+        ConnectPoint second = ConnectPoint.deviceConnectPoint("of:0000000000000002/1");
+        servers = ImmutableList.of(first, second);
+        MacAddress stays = clientOf(first);
+        MacAddress moves = clientOf(second);
+        properties.put(WARM_RESTART, "true");
+        component.modified(stub(ComponentContext.class));
+        FlowRule kept = perClientRule(stays);
+        FlowRule lost = perClientRule(moves);
+        installed.add(new DefaultFlowEntry(kept));
+        installed.add(new DefaultFlowEntry(lost));
+        //the second server's switch is gone when the app comes back
+        unavailable.add(second.deviceId());
+        restart();
+
+        assertEquals(ImmutableList.of(lost), removed);
+        assertNotNull(component.ToSever_rule_table.get(DEVICE, stays));
+        assertNull(component.ToSever_rule_table.get(DEVICE, moves));
+    }
+
+    /** A client MAC the ring of the configured servers gives to the server. */
+    private MacAddress clientOf(ConnectPoint server) {
+        ServerRing ring = new ServerRing();
+        ring.setServers(servers);
+        for (long mac = 1; ; mac++) {
+            MacAddress client = MacAddress.valueOf(0x020000000000L | mac);
+            if (server.equals(ring.serverFor(client))) {
+                return client;
+            }
+        }
+    }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.junit.Test;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.UDP;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the raw-offset DHCP classifier.
+ */
+public class DhcpClassifierTest {
+
+    private static final int DISCOVER = 1;
+    private static final int ACK = 5;
+    private static final long CLIENT = 0x0200000000abL;
+    private static final long SERVER = 0x0200000000feL;
+    private static final long BROADCAST = 0xffffffffffffL;
+    private static final int XID = 0x12345678;
+    private static final int YIADDR = 0x0a000005;
+
+    /** Offset of the BOOTP header in an untagged frame with a 20-byte IPv4 header. */
+    private static final int BOOTP = 14 + 20 + 8;
+
+    private static byte[] options(int... bytes) {
+        byte[] out = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i] = (byte) bytes[i];
+        }
+        return out;
+    }
+
+    private static byte[] frame(long src, long dst, short vlan, byte protocol, int srcPort, int dstPort,
+                                int cookie, byte[] options) {
+        ByteBuffer b = ByteBuffer.allocate(14 + (vlan != 0 ? 4 : 0) + 20 + 8 + 236 + 4 + options.length);
+        b.putShort((short) (dst >>> 32)).putInt((int) dst);
+        b.putShort((short) (src >>> 32)).putInt((int) src);
+        if (vlan != 0) {
+            b.putShort(vlan).putShort((short) 10);
+        }
+        b.putShort(Ethernet.TYPE_IPV4);
+        //IPv4: version 4, IHL 5, no fragment
+        b.put((byte) 0x45).put((byte) 0).putShort((short) (20 + 8 + 236 + 4 + options.length));
+        b.putShort((short) 0).putShort((short) 0);
+        b.put((byte) 64).put(protocol).putShort((short) 0);
+        b.putInt(0).putInt(-1);
+        //UDP
+        b.putShort((short) srcPort).putShort((short) dstPort).putShort((short) (8 + 236 + 4 + options.length))
+                .putShort((short) 0);
+        //BOOTP fixed part: op htype hlen hops, xid, secs flags, ciaddr, yiaddr, siaddr, giaddr, chaddr
+        int bootp = b.position();
+        b.put((byte) (srcPort == UDP.DHCP_CLIENT_PORT ? 1 : 2)).put((byte) 1).put((byte) 6).put((byte) 0);
+        b.putInt(XID);
+        b.putInt(0).putInt(0);
+        b.putInt(srcPort == UDP.DHCP_CLIENT_PORT ? 0 : YIADDR);
+        b.position(bootp + 28);
+        b.putShort((short) (CLIENT >>> 32)).putInt((int) CLIENT);
+        b.position(bootp + 236);
+        b.putInt(cookie);
+        b.put(options);
+        return b.array();
+    }
+
+    private static byte[] discover() {
+        return frame(CLIENT, BROADCAST, (short) 0, IPv4.PROTOCOL_UDP, UDP.DHCP_CLIENT_PORT, UDP.DHCP_SERVER_PORT,
+                0x63825363, options(53, 1, DISCOVER, 255));
+    }
+
+    private static byte[] ack(byte[] options) {
+        return frame(SERVER, CLIENT, (short) 0, IPv4.PROTOCOL_UDP, UDP.DHCP_SERVER_PORT, UDP.DHCP_CLIENT_PORT,
+                0x63825363, options);
+    }
+
+    @Test
+    public void discoverFields() {
+        ByteBuffer frame = ByteBuffer.wrap(discover());
+        assertEquals(DISCOVER, DhcpClassifier.messageType(frame));
+        assertEquals(XID, DhcpClassifier.xid(frame));
+        assertEquals(CLIENT, DhcpClassifier.clientMac(frame));
+        assertEquals(CLIENT, DhcpClassifier.srcMac(frame));
+        assertEquals(BROADCAST, DhcpClassifier.dstMac(frame));
+        assertEquals(-1, DhcpClassifier.leaseTime(frame));
+    }
+
+    @Test
+    public void ackAddressAndLeaseTime() {
+        //pad and an unrelated option ahead of the ones looked for
+        ByteBuffer frame = ByteBuffer.wrap(ack(options(0, 0, 1, 4, 255, 255, 255, 0,
+                53, 1, ACK, 51, 4, 0x80, 0, 0, 0x10, 255)));
+        assertEquals(ACK, DhcpClassifier.messageType(frame));
+        assertEquals(YIADDR, DhcpClassifier.yourIp(frame));
+        assertEquals(0x80000010L, DhcpClassifier.leaseTime(frame));
+        assertEquals(SERVER, DhcpClassifier.srcMac(frame));
+    }
+
+    @Test
+    public void vlanTagged() {
+        for (short tpid : new short[] {Ethernet.TYPE_VLAN, Ethernet.TYPE_QINQ}) {
+            ByteBuffer frame = ByteBuffer.wrap(frame(CLIENT, BROADCAST, tpid, IPv4.PROTOCOL_UDP,
+                    UDP.DHCP_CLIENT_PORT, UDP.DHCP_SERVER_PORT, 0x63825363, options(53, 1, DISCOVER)));
+            assertEquals(DISCOVER, DhcpClassifier.messageType(frame));
+            assertEquals(XID, DhcpClassifier.xid(frame));
+            assertEquals(CLIENT, DhcpClassifier.clientMac(frame));
+        }
+    }
+
+    @Test
+    public void readsFromPositionWithoutMovingIt() {
+        byte[] d = discover();
+        byte[] shifted = new byte[d.length + 7];
+        System.arraycopy(d, 0, shifted, 7, d.length);
+        ByteBuffer frame = ByteBuffer.wrap(shifted);
+        frame.position(7);
+        assertEquals(DISCOVER, DhcpClassifier.messageType(frame));
+        assertEquals(CLIENT, DhcpClassifier.clientMac(frame));
+        assertEquals(BROADCAST, DhcpClassifier.dstMac(frame));
+        assertEquals(7, frame.position());
+    }
+
+    @Test
+    public void otherTrafficIsNotDhcp() {
+        byte[] tcp = frame(CLIENT, BROADCAST, (short) 0, IPv4.PROTOCOL_TCP, UDP.DHCP_CLIENT_PORT,
+                UDP.DHCP_SERVER_PORT, 0x63825363, options(53, 1, DISCOVER));
+        byte[] dns = frame(CLIENT, BROADCAST, (short) 0, IPv4.PROTOCOL_UDP, 5353, 53,
+                0x63825363, options(53, 1, DISCOVER));
+        byte[] clientToClient = frame(CLIENT, BROADCAST, (short) 0, IPv4.PROTOCOL_UDP, UDP.DHCP_CLIENT_PORT,
+                UDP.DHCP_CLIENT_PORT, 0x63825363, options(53, 1, DISCOVER));
+        byte[] bootp = frame(CLIENT, BROADCAST, (short) 0, IPv4.PROTOCOL_UDP, UDP.DHCP_CLIENT_PORT,
+                UDP.DHCP_SERVER_PORT, 0, options(53, 1, DISCOVER));
+        byte[] noType = frame(CLIENT, BROADCAST, (short) 0, IPv4.PROTOCOL_UDP, UDP.DHCP_CLIENT_PORT,
+                UDP.DHCP_SERVER_PORT, 0x63825363, options(50, 4, 10, 0, 0, 5, 255, 53, 1, DISCOVER));
+        byte[] arp = discover();
+        arp[12] = 0x08;
+        arp[13] = 0x06;
+        byte[] ipv6 = discover();
+        ipv6[14] = 0x65;
+        byte[] fragment = discover();
+        fragment[14 + 7] = 1;
+        for (byte[] f : new byte[][] {tcp, dns, clientToClient, bootp, noType, arp, ipv6, fragment}) {
+            assertEquals(DhcpClassifier.NOT_DHCP, DhcpClassifier.messageType(ByteBuffer.wrap(f)));
+        }
+    }
+
+    @Test
+    public void truncatedFramesAreNotDhcp() {
+        byte[] d = discover();
+        //the message type value is the third byte of the options
+        int typeAt = BOOTP + 236 + 4 + 2;
+        for (int length = 0; length <= typeAt; length++) {
+            ByteBuffer frame = ByteBuffer.wrap(d, 0, length).slice();
+            assertEquals("length " + length, DhcpClassifier.NOT_DHCP, DhcpClassifier.messageType(frame));
+        }
+        assertEquals(DISCOVER, DhcpClassifier.messageType(ByteBuffer.wrap(d, 0, typeAt + 1).slice()));
+    }
+
+    @Test
+    public void malformedOptionsAreNotRead() {
+        //an option claiming more bytes than the frame has
+        assertEquals(DhcpClassifier.NOT_DHCP,
+                DhcpClassifier.messageType(ByteBuffer.wrap(ack(options(12, 200, 53, 1, ACK)))));
+        //a message type option too short to hold the type
+        assertEquals(DhcpClassifier.NOT_DHCP,
+                DhcpClassifier.messageType(ByteBuffer.wrap(ack(options(53, 0, 255)))));
+        //a code with no length byte left
+        assertEquals(DhcpClassifier.NOT_DHCP, DhcpClassifier.messageType(ByteBuffer.wrap(ack(options(53)))));
+        //a lease time option shorter than four bytes
+        assertEquals(-1, DhcpClassifier.leaseTime(ByteBuffer.wrap(ack(options(53, 1, ACK, 51, 2, 1, 0, 255)))));
+        //a lease time option running past the end of the frame
+        assertEquals(-1, DhcpClassifier.leaseTime(ByteBuffer.wrap(ack(options(53, 1, ACK, 51, 4, 0, 0)))));
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.onosproject.net.ConnectPoint;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests of the snooped lease store and its expiry wheel.
+ */
+public class LeaseStoreTest {
+
+    private static final ConnectPoint EDGE = ConnectPoint.deviceConnectPoint("of:0000000000000001/3");
+    private static final long MAC_A = 0x020000000001L;
+    private static final long MAC_B = 0x020000000002L;
+    private static final int IP_1 = 0x0a000001;
+    private static final int IP_2 = 0x0a000002;
+    /** Start of a wheel turn, so slot arithmetic in the tests is easy to follow. */
+    private static final long T0 = 1024L * 1000 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LeaseStore store;
+
+    @Before
+    public void setUp() {
+        store = new LeaseStore(100);
+        store.expire(T0);
+    }
+
+    @Test
+    public void bindRecordsTheRequestPort() {
+        store.clientAt(MAC_A, EDGE);
+        DhcpLease lease = store.bind(IP_1, MAC_A, 60, T0);
+        assertSame(lease, store.byIp(IP_1));
+        assertSame(lease, store.byMac(MAC_A));
+        assertEquals(EDGE, lease.location());
+        assertEquals(T0 + 60_000, lease.expiresAt());
+    }
+
+    @Test
+    public void bindWithoutRequestHasNoPort() {
+        assertNull(store.bind(IP_1, MAC_A, 60, T0).location());
+    }
+
+    @Test
+    public void newAddressReplacesTheOld() {
+        store.bind(IP_1, MAC_A, 60, T0);
+        store.bind(IP_2, MAC_A, 60, T0);
+        assertNull(store.byIp(IP_1));
+        assertEquals(IP_2, store.byMac(MAC_A).ip);
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void addressMovingToAnotherClientDropsTheFirst() {
+        store.bind(IP_1, MAC_A, 60, T0);
+        store.bind(IP_1, MAC_B, 60, T0);
+        assertNull(store.byMac(MAC_A));
+        assertEquals(MAC_B, store.byIp(IP_1).mac);
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void releaseDropsTheLease() {
+        store.bind(IP_1, MAC_A, 60, T0);
+        store.release(MAC_A);
+        assertNull(store.byIp(IP_1));
+        assertNull(store.byMac(MAC_A));
+        store.release(MAC_A);
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void expiresOnTheTickOfItsSlot() {
+        store.bind(IP_1, MAC_A, 10, T0 + 500);
+        assertEquals(0, store.expire(T0 + 10_000));
+        assertEquals(0, store.expire(T0 + 10_499));
+        //the lease ends part way through a tick and goes on the next one
+        assertEquals(0, store.expire(T0 + 10_999));
+        assertEquals(1, store.expire(T0 + 11_000));
+        assertNull(store.byMac(MAC_A));
+        assertNull(store.byIp(IP_1));
+    }
+
+    @Test
+    public void leaseLongerThanOneTurnWaitsForItsOwn() {
+        //the wheel has 1024 one-second slots; this lease passes its slot twice
+        long seconds = 2 * 1024 + 5;
+        store.bind(IP_1, MAC_A, seconds, T0);
+        for (long s = 1; s < seconds; s += 7) {
+            assertEquals("at " + s, 0, store.expire(T0 + s * 1000));
+        }
+        assertEquals(1, store.expire(T0 + seconds * 1000));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void renewedLeaseOutlivesItsOldSlot() {
+        store.bind(IP_1, MAC_A, 10, T0);
+        store.bind(IP_1, MAC_A, 100, T0 + 5_000);
+        assertEquals(0, store.expire(T0 + 20_000));
+        assertEquals(IP_1, store.byMac(MAC_A).ip);
+        assertEquals(1, store.expire(T0 + 105_000));
+    }
+
+    @Test
+    public void replacedLeaseDoesNotExpireItsSuccessor() {
+        store.bind(IP_1, MAC_A, 10, T0);
+        store.bind(IP_1, MAC_B, 100, T0);
+        assertEquals(0, store.expire(T0 + 20_000));
+        assertEquals(MAC_B, store.byIp(IP_1).mac);
+    }
+
+    @Test
+    public void longPauseExpiresEverythingDue() {
+        store.bind(IP_1, MAC_A, 10, T0);
+        store.bind(IP_2, MAC_B, 5000, T0);
+        //a gap longer than a turn is caught up in one turn rather than tick by tick
+        assertEquals(1, store.expire(T0 + 3000_000));
+        assertEquals(1, store.expire(T0 + 5000_000));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void snapshotRoundTrip() throws IOException {
+        store.clientAt(MAC_A, EDGE);
+        store.bind(IP_1, MAC_A, 60, T0);
+        store.bind(IP_2, MAC_B, 120, T0);
+        File file = new File(folder.getRoot(), "data/leases.bin");
+        store.save(file);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        LeaseStore loaded = new LeaseStore(100);
+        assertEquals(2, loaded.load(file, T0 + 1000));
+        DhcpLease a = loaded.byIp(IP_1);
+        assertEquals(MAC_A, a.mac);
+        assertEquals(EDGE, a.location());
+        assertEquals(T0 + 60_000, a.expiresAt());
+        DhcpLease b = loaded.byMac(MAC_B);
+        assertEquals(IP_2, b.ip);
+        assertNull(b.location());
+        assertEquals(T0 + 120_000, b.expiresAt());
+
+        //loaded leases go on the wheel like bound ones
+        loaded.expire(T0);
+        assertEquals(1, loaded.expire(T0 + 60_000));
+        assertEquals(1, loaded.size());
+    }
+
+    @Test
+    public void loadSkipsExpiredAndKnownLeases() throws IOException {
+        store.bind(IP_1, MAC_A, 60, T0);
+        store.bind(IP_2, MAC_B, 120, T0);
+        File file = folder.newFile();
+        store.save(file);
+
+        LeaseStore loaded = new LeaseStore(100);
+        //a lease snooped since the snapshot is newer than the saved one
+        loaded.bind(0x0a000009, MAC_B, 300, T0 + 70_000);
+        assertEquals(0, loaded.load(file, T0 + 70_000));
+        assertNull(loaded.byIp(IP_1));
+        assertEquals(0x0a000009, loaded.byMac(MAC_B).ip);
+    }
+
+    @Test(expected = IOException.class)
+    public void loadRejectsOtherFiles() throws IOException {
+        File file = folder.newFile();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0x12345678);
+            out.writeInt(1);
+        }
+        store.load(file, T0);
+    }
+
+    @Test(expected = IOException.class)
+    public void loadRejectsTruncatedSnapshot() throws IOException {
+        store.bind(IP_1, MAC_A, 60, T0);
+        File file = folder.newFile();
+        store.save(file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 4));
+        new LeaseStore(100).load(file, T0);
+    }
+
+    @Test
+    public void clearEmptiesTheStore() {
+        store.bind(IP_1, MAC_A, 10, T0);
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0, store.expire(T0 + 20_000));
+    }
+}
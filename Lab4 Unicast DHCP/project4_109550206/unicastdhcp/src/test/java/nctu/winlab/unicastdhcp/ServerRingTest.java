@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the consistent hash ring of DHCP servers.
+ */
+public class ServerRingTest {
+
+    private static final ConnectPoint S1 = ConnectPoint.deviceConnectPoint("of:0000000000000001/1");
+    private static final ConnectPoint S2 = ConnectPoint.deviceConnectPoint("of:0000000000000002/1");
+    private static final ConnectPoint S3 = ConnectPoint.deviceConnectPoint("of:0000000000000003/1");
+    private static final int CLIENTS = 3000;
+
+    private ServerRing ring;
+
+    @Before
+    public void setUp() {
+        ring = new ServerRing();
+        ring.setServers(ImmutableList.of(S1, S2, S3));
+    }
+
+    private static MacAddress client(int i) {
+        return MacAddress.valueOf(0x020000000000L + i);
+    }
+
+    private Map<MacAddress, ConnectPoint> assignments() {
+        Map<MacAddress, ConnectPoint> out = new HashMap<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            out.put(client(i), ring.serverFor(client(i)));
+        }
+        return out;
+    }
+
+    @Test
+    public void noServers() {
+        ServerRing empty = new ServerRing();
+        assertNull(empty.serverFor(client(1)));
+        assertNull(empty.primary());
+    }
+
+    @Test
+    public void clientsSpreadOverEveryServer() {
+        Map<ConnectPoint, Integer> counts = new HashMap<>();
+        for (ConnectPoint server : assignments().values()) {
+            counts.merge(server, 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        for (int n : counts.values()) {
+            assertTrue("unbalanced ring: " + counts, n > CLIENTS / 5 && n < CLIENTS / 2);
+        }
+    }
+
+    @Test
+    public void assignmentIsStable() {
+        Map<MacAddress, ConnectPoint> before = assignments();
+        ServerRing again = new ServerRing();
+        again.setServers(ImmutableList.of(S1, S2, S3));
+        for (Map.Entry<MacAddress, ConnectPoint> e : before.entrySet()) {
+            assertEquals(e.getValue(), ring.serverFor(e.getKey()));
+            assertEquals(e.getValue(), again.serverFor(e.getKey()));
+        }
+    }
+
+    @Test
+    public void failoverMovesOnlyTheLostServersClients() {
+        Map<MacAddress, ConnectPoint> before = assignments();
+        assertTrue(ring.markDown(S2));
+        for (Map.Entry<MacAddress, ConnectPoint> e : before.entrySet()) {
+            ConnectPoint now = ring.serverFor(e.getKey());
+            if (e.getValue().equals(S2)) {
+                assertNotEquals(S2, now);
+            } else {
+                assertEquals(e.getValue(), now);
+            }
+        }
+        assertTrue(ring.markUp(S2));
+        assertEquals(before, assignments());
+    }
+
+    @Test
+    public void allDownFallsBackToOwnServer() {
+        Map<MacAddress, ConnectPoint> before = assignments();
+        ring.markDown(S1);
+        ring.markDown(S2);
+        ring.markDown(S3);
+        assertEquals(before, assignments());
+        assertEquals(S1, ring.primary());
+    }
+
+    @Test
+    public void primaryIsFirstHealthyInConfigOrder() {
+        assertEquals(S1, ring.primary());
+        ring.markDown(S1);
+        assertEquals(S2, ring.primary());
+        ring.markDown(S2);
+        assertEquals(S3, ring.primary());
+        ring.markUp(S1);
+        assertEquals(S1, ring.primary());
+    }
+
+    @Test
+    public void markDownReportsChangesOnly() {
+        assertTrue(ring.markDown(S1));
+        assertFalse(ring.markDown(S1));
+        assertFalse(ring.markDown(ConnectPoint.deviceConnectPoint("of:0000000000000009/1")));
+        assertTrue(ring.isDown(S1));
+        assertFalse(ring.markUp(S2));
+    }
+
+    @Test
+    public void setServersKeepsHealthOfRemainingServers() {
+        ring.markDown(S1);
+        ring.markDown(S3);
+        ring.setServers(ImmutableList.of(S1, S2));
+        assertTrue(ring.isDown(S1));
+        assertFalse(ring.isDown(S3));
+        assertEquals(S2, ring.primary());
+        for (ConnectPoint server : assignments().values()) {
+            assertEquals(S2, server);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the count-min token bucket table.
+ */
+public class TokenBucketTableTest {
+
+    private static final long CLIENT = 0x020000000001L;
+
+    @Test
+    public void burstThenLimited() {
+        TokenBucketTable table = new TokenBucketTable(1024, 1, 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(table.tryAcquire(CLIENT));
+        }
+        assertFalse(table.tryAcquire(CLIENT));
+        assertEquals(1, table.limited());
+    }
+
+    @Test
+    public void refillsOverTime() throws InterruptedException {
+        TokenBucketTable table = new TokenBucketTable(1024, 10, 1);
+        assertTrue(table.tryAcquire(CLIENT));
+        assertFalse(table.tryAcquire(CLIENT));
+        Thread.sleep(150);
+        assertTrue(table.tryAcquire(CLIENT));
+    }
+
+    @Test
+    public void keysHaveTheirOwnBuckets() {
+        TokenBucketTable table = new TokenBucketTable(65536, 1, 1);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(table.tryAcquire(CLIENT + i));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertFalse(table.tryAcquire(CLIENT + i));
+        }
+    }
+
+    @Test
+    public void floodOfRotatingKeysIsLimited() {
+        //64 buckets of 2 tokens: each packet let through takes at least one token
+        TokenBucketTable table = new TokenBucketTable(64, 1, 2);
+        int accepted = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (table.tryAcquire(CLIENT + i)) {
+                accepted++;
+            }
+        }
+        assertTrue("accepted " + accepted, accepted <= 2 * 64);
+        assertEquals(10000 - accepted, table.limited());
+    }
+
+    @Test
+    public void burstIsCutToWhatABucketHolds() {
+        TokenBucketTable table = new TokenBucketTable(1024, 1, 100000);
+        for (int i = 0; i < TokenBucketTable.MAX_BURST; i++) {
+            assertTrue(table.tryAcquire(CLIENT));
+        }
+        assertFalse(table.tryAcquire(CLIENT));
+    }
+
+    @Test
+    public void slotsRoundUpPerRow() {
+        assertEquals(TokenBucketTable.ROWS * 16, new TokenBucketTable(60, 1, 1).slots());
+        assertEquals(TokenBucketTable.ROWS * 1024, new TokenBucketTable(4096, 1, 1).slots());
+    }
+}
@@ -31,13 +31,32 @@ import java.util.Dictionary;
 import java.util.Properties;
 
 import static org.onlab.util.Tools.get;
-
-import java.util.Map;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.FULL_TRACING;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.FULL_TRACING_DEFAULT;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.TRACE_SAMPLE_RATE;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.TRACE_SAMPLE_RATE_DEFAULT;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.PACKET_WORKERS;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.PACKET_WORKERS_DEFAULT;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.PACKET_QUEUE_SIZE;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.PACKET_QUEUE_SIZE_DEFAULT;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.ARP_HOLD_TIME;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.ARP_HOLD_TIME_DEFAULT;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.HOST_BINDING_AGE;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.HOST_BINDING_AGE_DEFAULT;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.HOST_REPROBE;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.HOST_REPROBE_DEFAULT;
+import static org.onlab.util.Tools.groupedThreads;
+
+import java.util.List;
 import java.util.Set;
 import java.util.Optional;
 import java.lang.Iterable;
-import com.google.common.collect.Maps;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 
 import org.onosproject.net.packet.InboundPacket;
 import org.onosproject.net.packet.DefaultOutboundPacket;
@@ -54,7 +73,12 @@ import org.onosproject.net.ConnectPoint;
 import org.onosproject.net.DeviceId;
 import org.onosproject.net.PortNumber;
 	
+import org.onosproject.net.Host;
 import org.onosproject.net.host.HostService;
+import org.onosproject.net.intf.Interface;
+import org.onosproject.net.intf.InterfaceService;
+import org.onosproject.net.edge.EdgePortEvent;
+import org.onosproject.net.edge.EdgePortListener;
 import org.onosproject.net.edge.EdgePortService;
 
 import org.onosproject.core.ApplicationId;
@@ -72,20 +96,54 @@ import java.nio.ByteBuffer;
 /**
  * Skeletal ONOS application component.
  */
-@Component(immediate = true)
-public class AppComponent{
+@Component(
+	immediate = true,
+	service = ProxyArpTraceService.class,
+	property = {
+		FULL_TRACING + ":Boolean=" + FULL_TRACING_DEFAULT,
+		TRACE_SAMPLE_RATE + ":Integer=" + TRACE_SAMPLE_RATE_DEFAULT,
+		PACKET_WORKERS + ":Integer=" + PACKET_WORKERS_DEFAULT,
+		PACKET_QUEUE_SIZE + ":Integer=" + PACKET_QUEUE_SIZE_DEFAULT,
+		ARP_HOLD_TIME + ":Integer=" + ARP_HOLD_TIME_DEFAULT,
+		HOST_BINDING_AGE + ":Integer=" + HOST_BINDING_AGE_DEFAULT,
+		HOST_REPROBE + ":Boolean=" + HOST_REPROBE_DEFAULT,
+	}
+)
+public class AppComponent implements ProxyArpTraceService {
 
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
 	private ApplicationId appId;
 	
-	private ProxyArpProcessor arpProcessor = new ProxyArpProcessor();
+	ProxyArpProcessor arpProcessor = new ProxyArpProcessor();
+	private volatile PacketDispatcher dispatcher;
+
+	/** Threads handling packet-ins, striped by device; 0 handles them on the ONOS packet thread. */
+	private int packet_workers = PACKET_WORKERS_DEFAULT;
+
+	/** Packet-ins each worker may have waiting. */
+	private int packet_queue_size = PACKET_QUEUE_SIZE_DEFAULT;
+
+	protected PacketTracer tracer = new PacketTracer(1024, TRACE_SAMPLE_RATE_DEFAULT);
+
+	protected final EdgePortCache edgePorts = new EdgePortCache();
+
+	/** Milliseconds further requests for a probed target wait instead of probing again; 0 probes every time. */
+	private int arp_hold_time = ARP_HOLD_TIME_DEFAULT;
+	private volatile PendingArpTable pendingArps = new PendingArpTable(ARP_HOLD_TIME_DEFAULT);
+	private final InternalEdgePortListener edgeListener = new InternalEdgePortListener();
 
-	protected Map< Ip4Address, MacAddress > ip_mac_table = Maps.newConcurrentMap();
+	/** Source of the unicast re-probes; hosts answer it, and those replies end here. */
+	private static final MacAddress PROBE_MAC = MacAddress.ONOS;
 
-	protected Map< MacAddress, DeviceId > mac_sId_table = Maps.newConcurrentMap();
+	/** Seconds a learned host binding lives without being seen; 0 keeps it forever. */
+	private int host_binding_age = HOST_BINDING_AGE_DEFAULT;
 
-	protected Map< MacAddress, PortNumber > mac_port_table = Maps.newConcurrentMap();
+	/** Whether a binding about to age out is probed with a unicast ARP request first. */
+	private boolean host_reprobe = HOST_REPROBE_DEFAULT;
+
+	protected final HostBindingStore bindings = new HostBindingStore(HOST_BINDING_AGE_DEFAULT * 1000L);
+	private ScheduledExecutorService bindingExecutor;
 	
 	@Reference(cardinality = ReferenceCardinality.MANDATORY)
 	protected ComponentConfigService cfgService;
@@ -99,24 +157,130 @@ public class AppComponent{
 	@Reference(cardinality = ReferenceCardinality.MANDATORY)
 	protected EdgePortService eptService;
 
+	@Reference(cardinality = ReferenceCardinality.MANDATORY)
+	protected HostService hostService;
+
+	@Reference(cardinality = ReferenceCardinality.MANDATORY)
+	protected InterfaceService interfaceService;
+
 	@Activate
-	protected void activate() {
+	protected void activate(ComponentContext context) {
+		cfgService.registerProperties(getClass());
+		modified(context);
 		appId = coreService.registerApplication("nctu.winlab.ProxyArp");
+		eptService.addListener(edgeListener);
+		edgePorts.rebuild(eptService::getEdgePoints);
+		bindingExecutor = Executors.newSingleThreadScheduledExecutor(groupedThreads("nctu/winlab/ProxyArp", "host-aging", log));
+		bindingExecutor.scheduleAtFixedRate(this::ageBindings, 1, 1, TimeUnit.SECONDS);
 		packetService.addProcessor( arpProcessor, PacketProcessor.director(3) );
 		log.info("Started");
 	}
 
 	@Deactivate
 	protected void deactivate() {
+		cfgService.unregisterProperties(getClass(), false);
 		packetService.removeProcessor(arpProcessor);
+		eptService.removeListener(edgeListener);
+		bindingExecutor.shutdownNow();
+		log.info(resolutionReport());
+		log.info(bindings.toString());
+		bindings.clear();
+		dispatcher.shutdown();
+		log.debug(dispatcher.toString());
 		log.info("Stopped");
 	}
 
-	private class ProxyArpProcessor implements PacketProcessor {
+	@Modified
+	public void modified(ComponentContext context) {
+		Dictionary<?, ?> properties = context != null ? context.getProperties() : new Properties();
+
+		int newWorkers = Math.max(0, intProperty(properties, PACKET_WORKERS, PACKET_WORKERS_DEFAULT));
+		int newQueueSize = Math.max(1, intProperty(properties, PACKET_QUEUE_SIZE, PACKET_QUEUE_SIZE_DEFAULT));
+		if (dispatcher == null || newWorkers != packet_workers || newQueueSize != packet_queue_size) {
+			packet_workers = newWorkers;
+			packet_queue_size = newQueueSize;
+			PacketDispatcher old = dispatcher;
+			dispatcher = new PacketDispatcher("nctu/winlab/ProxyArp", packet_workers, packet_queue_size,
+				arpProcessor::ProxyArp, log);
+			if (old != null) old.shutdown();
+		}
+
+		int newHoldTime = Math.max(0, intProperty(properties, ARP_HOLD_TIME, ARP_HOLD_TIME_DEFAULT));
+		if (newHoldTime != arp_hold_time) {
+			arp_hold_time = newHoldTime;
+			pendingArps = new PendingArpTable(newHoldTime);
+		}
+
+		host_binding_age = Math.max(0, intProperty(properties, HOST_BINDING_AGE, HOST_BINDING_AGE_DEFAULT));
+		bindings.setAge(host_binding_age * 1000L);
+		host_reprobe = booleanProperty(properties, HOST_REPROBE, HOST_REPROBE_DEFAULT);
+
+		tracer.setFullTracing(booleanProperty(properties, FULL_TRACING, FULL_TRACING_DEFAULT));
+		tracer.setSampleRate(intProperty(properties, TRACE_SAMPLE_RATE, TRACE_SAMPLE_RATE_DEFAULT));
+		log.info("Reconfigured: {} packet workers", packet_workers);
+	}
+
+	// How each ARP request was resolved, cheapest tier first.
+	@Override
+	public List<String> traceDump() {
+		List<String> lines = Lists.newArrayList(tracer.dump());
+		lines.add(dispatcher.toString());
+		lines.add(edgePorts.toString());
+		lines.add(bindings.toString());
+		lines.add(resolutionReport());
+		return lines;
+	}
+
+	private String resolutionReport() {
+		return String.format("ARP requests: %d from table, %d from hosts, %d probed in subnet, %d flooded, %d held for a pending probe",
+			tracer.count(PacketTracer.TABLE_HIT), tracer.count(PacketTracer.HOST_HIT),
+			tracer.count(PacketTracer.SUBNET_PROBE), tracer.count(PacketTracer.FLOOD),
+			tracer.count(PacketTracer.COALESCED));
+	}
+
+	// Drops aged-out host bindings and asks the hosts about to age out whether they are still there.
+	private void ageBindings() {
+		for (HostBindingStore.Binding b : bindings.sweep(System.currentTimeMillis(), host_reprobe)) {
+			ByteBuffer frame = arpProcessor.buildArpPacket(ARP.OP_REQUEST, b.ip, Ip4Address.valueOf(0), b.mac, PROBE_MAC);
+			arpProcessor.sendFrame(b.location.deviceId(), b.location.port(), frame);
+		}
+	}
+
+	private int intProperty(Dictionary<?, ?> properties, String name, int defaultValue) {
+		String s = get(properties, name);
+		try {
+			return Strings.isNullOrEmpty(s) ? defaultValue : Integer.parseInt(s.trim());
+		} catch (NumberFormatException e) {
+			log.warn("Invalid {} value {}, using {}", name, s, defaultValue);
+			return defaultValue;
+		}
+	}
+
+	private boolean booleanProperty(Dictionary<?, ?> properties, String name, boolean defaultValue) {
+		String s = get(properties, name);
+		return Strings.isNullOrEmpty(s) ? defaultValue : Boolean.parseBoolean(s.trim());
+	}
+
+	private class InternalEdgePortListener implements EdgePortListener {
+		@Override
+		public void event(EdgePortEvent event) {
+			if (event.type() == EdgePortEvent.Type.EDGE_PORT_ADDED) {
+				edgePorts.added(event.subject());
+			} else if (event.type() == EdgePortEvent.Type.EDGE_PORT_REMOVED) {
+				edgePorts.removed(event.subject());
+			}
+		}
+	}
+
+	class ProxyArpProcessor implements PacketProcessor {
 		@Override
 		public void process( PacketContext pc ){
 			if (pc.isHandled()) return;
-			ProxyArp( pc );
+			//only IPv4 ARP is ours; everything else is left to the other processors
+			Ethernet etherFrame = pc.inPacket().parsed();
+			if( etherFrame == null || etherFrame.getEtherType() != Ethernet.TYPE_ARP ) return;
+			if( ((ARP) etherFrame.getPayload()).getProtocolType() != ARP.PROTO_TYPE_IP ) return;
+			dispatcher.dispatch( pc );
 		}
 
 		public void ProxyArp( PacketContext pc ){
@@ -124,11 +288,7 @@ public class AppComponent{
 			ConnectPoint cp 	= inPacket.receivedFrom();
 			
 			Ethernet etherFrame 	= inPacket.parsed();		
-			if( etherFrame.getEtherType() != Ethernet.TYPE_ARP ) return;
-			
 			ARP arpDatagram		= (ARP) etherFrame.getPayload();
-			
-			if(arpDatagram.getProtocolType() != ARP.PROTO_TYPE_IP) return;
 	
 			Ip4Address target = Ip4Address.valueOf(arpDatagram.getTargetProtocolAddress());
 			Ip4Address sender = Ip4Address.valueOf(arpDatagram.getSenderProtocolAddress());
@@ -138,76 +298,100 @@ public class AppComponent{
 			DeviceId sId = cp.deviceId();
 			PortNumber inport = cp.port();
 
-			macLearning(sender, src);
-			sIdLearning(src, sId);
-			portLearning(src, inport);
+			long now = System.currentTimeMillis();
+			bindings.learn(sender, src, cp, now);
 
 			if(arpDatagram.getOpCode() == ARP.OP_REQUEST){
-				if(ip_mac_table.containsKey(target)){
-					Ethernet frame = buildArpPacket(ARP.OP_REPLY, sender, target, src, ip_mac_table.get(target));
+				MacAddress known = bindings.macOf(target, now);
+				if(known != null){
+					ByteBuffer frame = buildArpPacket(ARP.OP_REPLY, sender, target, src, known);
 					sendFrame(sId, inport, frame);
-					log.info("TABLE HIT. Requested MAC = {}", ip_mac_table.get(target));
+					tracer.trace(PacketTracer.TABLE_HIT, sId, inport.toLong(), src.toLong(), target.toInt());
 				}else{
-					Ethernet frame = buildArpPacket(ARP.OP_REQUEST, target, sender, dst, src);
-					Iterable<ConnectPoint> edgePoints = eptService.getEdgePoints();
-					for(ConnectPoint edgePoint : edgePoints){
-						if(edgePoint.deviceId().toString().equals(sId.toString()) && edgePoint.port().toString().equals(inport.toString())){
-							continue;
-						}
-						sendFrame(edgePoint.deviceId(), edgePoint.port(), frame);
-					}
-					log.info("TABLE MISS. Send request to edge ports");
+					resolve(cp, target, sender, dst, src);
 				}
 			}
 
 			if(arpDatagram.getOpCode() == ARP.OP_REPLY){
-				Ethernet frame = buildArpPacket(ARP.OP_REPLY, target, sender, dst, src);
-				sendFrame(mac_sId_table.get(dst), mac_port_table.get(dst), frame);
-				log.info("RECV REPLY. Requested MAC = {}", src);
+				if(answerWaiters(sender, src, dst)) return;
+				//answers to our re-probes have done their job once learned
+				if(dst.equals(PROBE_MAC)) return;
+				ConnectPoint asker = bindings.locationOf(dst, now);
+				if(asker == null) return;
+				ByteBuffer frame = buildArpPacket(ARP.OP_REPLY, target, sender, dst, src);
+				sendFrame(asker.deviceId(), asker.port(), frame);
+				tracer.trace(PacketTracer.REPLY, sId, inport.toLong(), src.toLong(), sender.toInt());
 			}			
 			
 		}
 
-		public void macLearning(Ip4Address ip, MacAddress mac){
-			if(ip_mac_table.containsKey(ip)) return;
-			ip_mac_table.put(ip, mac);
-		}
-		
-		public void sIdLearning(MacAddress mac, DeviceId sId){
-			if(mac_sId_table.containsKey(mac)) return;
-			mac_sId_table.put(mac, sId);
+		//asks the cheapest source that can answer: hosts ONOS already knows, then the
+		//interfaces configured for the target's subnet, and only then every edge port
+		private void resolve(ConnectPoint cp, Ip4Address target, Ip4Address sender, MacAddress dst, MacAddress src){
+			DeviceId sId = cp.deviceId();
+			PortNumber inport = cp.port();
+
+			for(Host host : hostService.getHostsByIp(target)){
+				if(host.mac() == null || host.mac().equals(MacAddress.NONE)) continue;
+				bindings.learn(target, host.mac(), host.location(), System.currentTimeMillis());
+				ByteBuffer frame = buildArpPacket(ARP.OP_REPLY, sender, target, src, host.mac());
+				sendFrame(sId, inport, frame);
+				tracer.trace(PacketTracer.HOST_HIT, sId, inport.toLong(), src.toLong(), target.toInt());
+				return;
+			}
+
+			//a probe for the target is already out; its reply will answer this request too
+			if(arp_hold_time > 0
+					&& !pendingArps.await(target, new PendingArpTable.Waiter(src, sender, cp), System.currentTimeMillis())){
+				tracer.trace(PacketTracer.COALESCED, sId, inport.toLong(), src.toLong(), target.toInt());
+				return;
+			}
+
+			ByteBuffer frame = buildArpPacket(ARP.OP_REQUEST, target, sender, dst, src);
+			boolean probed = false;
+			for(Interface intf : interfaceService.getMatchingInterfaces(target)){
+				if(intf.connectPoint().equals(cp)) continue;
+				sendFrame(intf.connectPoint().deviceId(), intf.connectPoint().port(), frame.duplicate());
+				probed = true;
+			}
+			if(probed){
+				tracer.trace(PacketTracer.SUBNET_PROBE, sId, inport.toLong(), src.toLong(), target.toInt());
+				return;
+			}
+
+			//one packet-out per device, carrying an output for each of its edge ports;
+			//they share the frame's bytes, which nothing writes after this
+			for(DeviceId device : edgePorts.devices()){
+				TrafficTreatment t = edgePorts.flood(device, device.equals(sId) ? inport : null);
+				if(t == null) continue;
+				packetService.emit(new DefaultOutboundPacket(device, t, frame.duplicate()));
+			}
+			tracer.trace(PacketTracer.FLOOD, sId, inport.toLong(), src.toLong(), target.toInt());
 		}
 
-		public void portLearning(MacAddress mac, PortNumber port){
-			if(mac_port_table.containsKey(mac)) return;
-			mac_port_table.put(mac, port);
+		//answers every host that asked for the target while its probe was out;
+		//false if the reply's own destination was not among them and still needs relaying
+		private boolean answerWaiters(Ip4Address target, MacAddress targetMac, MacAddress dst){
+			boolean answeredDst = false;
+			for(PendingArpTable.Waiter waiter : pendingArps.resolved(target)){
+				ByteBuffer frame = buildArpPacket(ARP.OP_REPLY, waiter.ip, target, waiter.mac, targetMac);
+				sendFrame(waiter.location.deviceId(), waiter.location.port(), frame);
+				tracer.trace(PacketTracer.REPLY, waiter.location.deviceId(), waiter.location.port().toLong(),
+					targetMac.toLong(), target.toInt());
+				answeredDst |= waiter.mac.equals(dst);
+			}
+			return answeredDst;
 		}
 
-		public void sendFrame(DeviceId sId, PortNumber output, Ethernet frame){
+		public void sendFrame(DeviceId sId, PortNumber output, ByteBuffer frame){
 			TrafficTreatment t = DefaultTrafficTreatment.builder().setOutput(output).build();
-			OutboundPacket o = new DefaultOutboundPacket(sId, t, ByteBuffer.wrap(frame.serialize()));
+			OutboundPacket o = new DefaultOutboundPacket(sId, t, frame);
 			packetService.emit(o);
 		}
 		
-		public Ethernet buildArpPacket(short op, Ip4Address target, Ip4Address sender, MacAddress dst, MacAddress src){	
-			ARP arp = new ARP();
-			arp.setOpCode(op);
-			arp.setProtocolType(ARP.PROTO_TYPE_IP);
-			arp.setHardwareType(ARP.HW_TYPE_ETHERNET);
-			arp.setProtocolAddressLength((byte) Ip4Address.BYTE_LENGTH);
-			arp.setHardwareAddressLength((byte) Ethernet.DATALAYER_ADDRESS_LENGTH);			
-			arp.setTargetHardwareAddress(dst.toBytes());
-			arp.setSenderHardwareAddress(src.toBytes());
-			arp.setTargetProtocolAddress(target.toInt());
-			arp.setSenderProtocolAddress(sender.toInt());
-
-			Ethernet eth = new Ethernet();
-			eth.setDestinationMACAddress(dst);
-			eth.setSourceMACAddress(src);
-			eth.setEtherType(Ethernet.TYPE_ARP);
-			eth.setPayload(arp);
-
-			return eth;
+		//patched into a copy of a fixed 42-byte template, no ARP/Ethernet objects per packet
+		public ByteBuffer buildArpPacket(short op, Ip4Address target, Ip4Address sender, MacAddress dst, MacAddress src){	
+			return ArpFrames.frame(op, target.toInt(), sender.toInt(), dst.toLong(), src.toLong());
 		}
 	}
 
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import org.onlab.packet.ARP;
+import org.onlab.packet.Ethernet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ARP frames written straight into bytes. A 42-byte template holds the
+ * Ethernet type and the fixed ARP header fields; each frame is a copy of
+ * it with the opcode, MACs and addresses patched in, instead of an
+ * {@code Ethernet}/{@code ARP} object graph serialized per packet.
+ */
+public final class ArpFrames {
+
+	public static final int LENGTH = 42;
+
+	private static final int ETH_DST = 0;
+	private static final int ETH_SRC = 6;
+	private static final int ARP_OP = 20;
+	private static final int SENDER_MAC = 22;
+	private static final int SENDER_IP = 28;
+	private static final int TARGET_MAC = 32;
+	private static final int TARGET_IP = 38;
+
+	private static final byte[] TEMPLATE = new byte[LENGTH];
+
+	static {
+		ByteBuffer t = ByteBuffer.wrap(TEMPLATE);
+		t.putShort(12, Ethernet.TYPE_ARP);
+		t.putShort(14, ARP.HW_TYPE_ETHERNET);
+		t.putShort(16, ARP.PROTO_TYPE_IP);
+		t.put(18, (byte) Ethernet.DATALAYER_ADDRESS_LENGTH);
+		t.put(19, (byte) 4);
+	}
+
+	private ArpFrames() {
+	}
+
+	/**
+	 * Frame from {@code src} to {@code dst}, with the same MACs as the ARP
+	 * sender and target hardware addresses.
+	 *
+	 * @return heap buffer over a new array, as packet-outs read the array
+	 */
+	public static ByteBuffer frame(short op, int targetIp, int senderIp, long dstMac, long srcMac) {
+		ByteBuffer frame = ByteBuffer.wrap(TEMPLATE.clone());
+		putMac(frame, ETH_DST, dstMac);
+		putMac(frame, ETH_SRC, srcMac);
+		frame.putShort(ARP_OP, op);
+		putMac(frame, SENDER_MAC, srcMac);
+		frame.putInt(SENDER_IP, senderIp);
+		putMac(frame, TARGET_MAC, dstMac);
+		frame.putInt(TARGET_IP, targetIp);
+		return frame;
+	}
+
+	private static void putMac(ByteBuffer frame, int at, long mac) {
+		frame.putShort(at, (short) (mac >>> 32));
+		frame.putInt(at + 2, (int) mac);
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.TrafficTreatment;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Edge ports grouped by device, kept up to date from edge port events
+ * rather than walked on every flood. Each device also keeps a treatment
+ * outputting to all of its edge ports, so a flood is one packet-out per
+ * device. Events that arrive while a rebuild reads the edge ports are
+ * replayed on top of what it read, so none is lost to the rebuild.
+ */
+public class EdgePortCache {
+
+	private static final class DeviceEdge {
+		final Set<PortNumber> ports;
+		final TrafficTreatment all;
+
+		DeviceEdge(Set<PortNumber> ports) {
+			this.ports = ports;
+			this.all = outputs(ports, null);
+		}
+	}
+
+	private static final class QueuedEvent {
+		final ConnectPoint cp;
+		final boolean added;
+
+		QueuedEvent(ConnectPoint cp, boolean added) {
+			this.cp = cp;
+			this.added = added;
+		}
+	}
+
+	private final Map<DeviceId, DeviceEdge> devices = Maps.newConcurrentMap();
+	/** Events seen since a rebuild started reading, in order; null when none is running. */
+	private List<QueuedEvent> queued;
+
+	/**
+	 * Replaces the cache with the edge ports read from the supplier. The
+	 * listener feeding {@link #added} and {@link #removed} should be
+	 * registered first; the events it delivers while the ports are read are
+	 * applied again once the new cache is in place. One rebuild at a time.
+	 */
+	public void rebuild(Supplier<? extends Iterable<ConnectPoint>> edgePoints) {
+		synchronized (this) {
+			queued = Lists.newArrayList();
+		}
+		//read outside the lock: floods and events go on against the old cache meanwhile
+		Map<DeviceId, Set<PortNumber>> ports = Maps.newHashMap();
+		for (ConnectPoint cp : edgePoints.get()) {
+			ports.computeIfAbsent(cp.deviceId(), k -> Sets.newHashSet()).add(cp.port());
+		}
+		synchronized (this) {
+			devices.keySet().retainAll(ports.keySet());
+			ports.forEach((deviceId, set) -> devices.put(deviceId, new DeviceEdge(ImmutableSet.copyOf(set))));
+			//the last event of a port wins over the read, whichever came first
+			for (QueuedEvent event : queued) {
+				if (event.added) {
+					add(event.cp);
+				} else {
+					remove(event.cp);
+				}
+			}
+			queued = null;
+		}
+	}
+
+	public synchronized void added(ConnectPoint cp) {
+		if (queued != null) {
+			queued.add(new QueuedEvent(cp, true));
+		}
+		add(cp);
+	}
+
+	public synchronized void removed(ConnectPoint cp) {
+		if (queued != null) {
+			queued.add(new QueuedEvent(cp, false));
+		}
+		remove(cp);
+	}
+
+	private void add(ConnectPoint cp) {
+		DeviceEdge edge = devices.get(cp.deviceId());
+		if (edge != null && edge.ports.contains(cp.port())) {
+			return;
+		}
+		Set<PortNumber> ports = Sets.newHashSet(cp.port());
+		if (edge != null) {
+			ports.addAll(edge.ports);
+		}
+		devices.put(cp.deviceId(), new DeviceEdge(ImmutableSet.copyOf(ports)));
+	}
+
+	private void remove(ConnectPoint cp) {
+		DeviceEdge edge = devices.get(cp.deviceId());
+		if (edge == null || !edge.ports.contains(cp.port())) {
+			return;
+		}
+		Set<PortNumber> ports = Sets.newHashSet(edge.ports);
+		ports.remove(cp.port());
+		if (ports.isEmpty()) {
+			devices.remove(cp.deviceId());
+		} else {
+			devices.put(cp.deviceId(), new DeviceEdge(ImmutableSet.copyOf(ports)));
+		}
+	}
+
+	public Set<DeviceId> devices() {
+		return devices.keySet();
+	}
+
+	/**
+	 * @param except edge port to leave out, or null
+	 * @return treatment outputting to the device's edge ports, or null if
+	 *         there are none besides {@code except}
+	 */
+	public TrafficTreatment flood(DeviceId deviceId, PortNumber except) {
+		DeviceEdge edge = devices.get(deviceId);
+		if (edge == null) {
+			return null;
+		}
+		if (except == null || !edge.ports.contains(except)) {
+			return edge.all;
+		}
+		return edge.ports.size() == 1 ? null : outputs(edge.ports, except);
+	}
+
+	private static TrafficTreatment outputs(Set<PortNumber> ports, PortNumber except) {
+		TrafficTreatment.Builder builder = DefaultTrafficTreatment.builder();
+		for (PortNumber port : ports) {
+			if (!port.equals(except)) {
+				builder.setOutput(port);
+			}
+		}
+		return builder.build();
+	}
+
+	public int size() {
+		int n = 0;
+		for (DeviceEdge edge : devices.values()) {
+			n += edge.ports.size();
+		}
+		return n;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("edge ports: %d on %d devices", size(), devices.size());
+	}
+}
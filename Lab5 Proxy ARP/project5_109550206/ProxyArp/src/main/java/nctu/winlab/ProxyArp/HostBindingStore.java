@@ -0,0 +1,166 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hosts learned from ARP traffic: which MAC answers for an IP, and where a
+ * MAC was last seen. A binding is replaced as soon as a host shows up with
+ * another MAC or at another port, and refreshed every time it is seen.
+ * Bindings not seen for the age are dropped; with re-probing on, a binding
+ * is handed out once for a unicast probe when three quarters of the age
+ * have passed, so a host that is still there refreshes it before it goes.
+ */
+public class HostBindingStore {
+
+	/** One host as last seen. Replaced, not changed, when the host moves. */
+	public static final class Binding {
+		final Ip4Address ip;
+		final MacAddress mac;
+		final ConnectPoint location;
+		volatile long lastSeen;
+		volatile boolean probed;
+
+		Binding(Ip4Address ip, MacAddress mac, ConnectPoint location, long lastSeen) {
+			this.ip = ip;
+			this.mac = mac;
+			this.location = location;
+			this.lastSeen = lastSeen;
+		}
+
+		boolean same(MacAddress mac, ConnectPoint location) {
+			return this.mac.equals(mac) && this.location.equals(location);
+		}
+	}
+
+	private final Map<Ip4Address, Binding> byIp = Maps.newConcurrentMap();
+	/** Latest binding of each MAC, used only for its location. */
+	private final Map<MacAddress, Binding> byMac = Maps.newConcurrentMap();
+
+	/** Milliseconds a binding lives without being seen; 0 keeps it forever. */
+	private volatile long ageMillis;
+
+	private final LongAdder moves = new LongAdder();
+	private final LongAdder reassigned = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+	private final LongAdder probes = new LongAdder();
+
+	public HostBindingStore(long ageMillis) {
+		this.ageMillis = ageMillis;
+	}
+
+	public void setAge(long ageMillis) {
+		this.ageMillis = ageMillis;
+	}
+
+	/** Records that the MAC was seen at the location using the IP; 0.0.0.0 updates the location only. */
+	public void learn(Ip4Address ip, MacAddress mac, ConnectPoint location, long now) {
+		byMac.compute(mac, (k, b) -> {
+			if (b != null && b.location.equals(location)) {
+				b.lastSeen = now;
+				return b;
+			}
+			if (b != null) {
+				moves.increment();
+			}
+			return new Binding(ip, mac, location, now);
+		});
+		if (ip.toInt() == 0) {
+			return;
+		}
+		byIp.compute(ip, (k, b) -> {
+			if (b != null && b.same(mac, location)) {
+				b.lastSeen = now;
+				b.probed = false;
+				return b;
+			}
+			if (b != null && !b.mac.equals(mac)) {
+				reassigned.increment();
+			}
+			return new Binding(ip, mac, location, now);
+		});
+	}
+
+	/** @return MAC bound to the IP, or null if there is none or it has aged out */
+	public MacAddress macOf(Ip4Address ip, long now) {
+		Binding b = byIp.get(ip);
+		return b != null && fresh(b, now) ? b.mac : null;
+	}
+
+	/** @return where the MAC was last seen, or null if it was not or that has aged out */
+	public ConnectPoint locationOf(MacAddress mac, long now) {
+		Binding b = byMac.get(mac);
+		return b != null && fresh(b, now) ? b.location : null;
+	}
+
+	private boolean fresh(Binding b, long now) {
+		long age = ageMillis;
+		return age == 0 || now - b.lastSeen < age;
+	}
+
+	/**
+	 * Drops the bindings that have aged out.
+	 *
+	 * @return the IP bindings due for a re-probe, each only once until it is seen again;
+	 *         empty unless {@code reprobe} is set
+	 */
+	public List<Binding> sweep(long now, boolean reprobe) {
+		long age = ageMillis;
+		List<Binding> due = Lists.newArrayList();
+		if (age == 0) {
+			return due;
+		}
+		for (Binding b : byIp.values()) {
+			long idle = now - b.lastSeen;
+			if (idle >= age) {
+				if (byIp.remove(b.ip, b)) {
+					expired.increment();
+				}
+			} else if (reprobe && !b.probed && idle >= age - age / 4) {
+				b.probed = true;
+				due.add(b);
+			}
+		}
+		byMac.values().removeIf(b -> now - b.lastSeen >= age);
+		probes.add(due.size());
+		return due;
+	}
+
+	public int size() {
+		return byIp.size();
+	}
+
+	public void clear() {
+		byIp.clear();
+		byMac.clear();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("host bindings: %d IPs, %d MACs, %d moved, %d reassigned, %d expired, %d re-probed",
+				byIp.size(), byMac.size(), moves.sum(), reassigned.sum(), expired.sum(), probes.sum());
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+/**
+ * Constants for default values of configurable properties.
+ */
+public final class OsgiPropertyConstants {
+
+	private OsgiPropertyConstants() {
+	}
+
+	public static final String FULL_TRACING = "fullTracing";
+	public static final boolean FULL_TRACING_DEFAULT = false;
+
+	public static final String TRACE_SAMPLE_RATE = "traceSampleRate";
+	public static final int TRACE_SAMPLE_RATE_DEFAULT = 64;
+
+	public static final String PACKET_WORKERS = "packetWorkers";
+	public static final int PACKET_WORKERS_DEFAULT = 0;
+
+	public static final String PACKET_QUEUE_SIZE = "packetQueueSize";
+	public static final int PACKET_QUEUE_SIZE_DEFAULT = 1024;
+
+	public static final String ARP_HOLD_TIME = "arpHoldTime";
+	public static final int ARP_HOLD_TIME_DEFAULT = 1000;
+
+	public static final String HOST_BINDING_AGE = "hostBindingAge";
+	public static final int HOST_BINDING_AGE_DEFAULT = 300;
+
+	public static final String HOST_REPROBE = "hostReprobe";
+	public static final boolean HOST_REPROBE_DEFAULT = false;
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import org.onosproject.net.packet.PacketContext;
+import org.slf4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Moves packet-in handling off the ONOS packet thread. Packets are striped
+ * by device onto single-consumer bounded queues, so packets from one switch
+ * are handled in arrival order while different switches run in parallel.
+ * A full queue first pushes back on the caller for up to
+ * {@link #BACKPRESSURE_WAIT_MS} and then drops the packet. With zero
+ * workers every packet is handled inline on the caller's thread.
+ * <p>
+ * Every dispatched packet is claimed with {@link PacketContext#block()}
+ * before it is queued, so lower-priority processors do not forward it
+ * too. A blocked context no longer sends, so handlers packet out through
+ * {@code PacketService#emit} instead of {@link PacketContext#send()}.
+ */
+public class PacketDispatcher {
+
+	static final long BACKPRESSURE_WAIT_MS = 50;
+	/** How long {@link #shutdown()} waits for the packets being handled. */
+	static final long SHUTDOWN_WAIT_MS = 1000;
+
+	private final Consumer<PacketContext> handler;
+	private final Logger log;
+	private final BlockingQueue<PacketContext>[] queues;
+	private final ExecutorService workers;
+
+	private final LongAdder dispatched = new LongAdder();
+	private final LongAdder backpressured = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * @param group thread group name
+	 * @param workers number of worker threads, 0 to handle packets inline
+	 * @param queueSize capacity of each worker's queue
+	 */
+	@SuppressWarnings("unchecked")
+	public PacketDispatcher(String group, int workers, int queueSize, Consumer<PacketContext> handler, Logger log) {
+		this.handler = handler;
+		this.log = log;
+		this.queues = new BlockingQueue[Math.max(workers, 0)];
+		if (queues.length == 0) {
+			this.workers = null;
+			return;
+		}
+		this.workers = Executors.newFixedThreadPool(queues.length, groupedThreads(group, "packet-%d", log));
+		for (int i = 0; i < queues.length; i++) {
+			BlockingQueue<PacketContext> queue = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+			queues[i] = queue;
+			this.workers.execute(() -> drain(queue));
+		}
+	}
+
+	private void drain(BlockingQueue<PacketContext> queue) {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				handle(queue.take());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void handle(PacketContext pc) {
+		try {
+			handler.accept(pc);
+		} catch (RuntimeException e) {
+			log.warn("Packet-in from {} failed", pc.inPacket().receivedFrom(), e);
+		}
+	}
+
+	/** Claims a packet-in and hands it to the worker owning its device. */
+	public void dispatch(PacketContext pc) {
+		pc.block();
+		dispatched.increment();
+		if (queues.length == 0) {
+			handle(pc);
+			return;
+		}
+		int stripe = (pc.inPacket().receivedFrom().deviceId().hashCode() & Integer.MAX_VALUE) % queues.length;
+		BlockingQueue<PacketContext> queue = queues[stripe];
+		if (queue.offer(pc)) {
+			return;
+		}
+		backpressured.increment();
+		try {
+			if (queue.offer(pc, BACKPRESSURE_WAIT_MS, TimeUnit.MILLISECONDS)) {
+				return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		dropped.increment();
+	}
+
+	public int workers() {
+		return queues.length;
+	}
+
+	public int queued() {
+		int n = 0;
+		for (BlockingQueue<PacketContext> queue : queues) {
+			n += queue.size();
+		}
+		return n;
+	}
+
+	public long dispatched() {
+		return dispatched.sum();
+	}
+
+	public long backpressured() {
+		return backpressured.sum();
+	}
+
+	public long dropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Stops the workers and waits for the packets they are handling, so
+	 * nothing a handler does comes after this returns; packets still
+	 * queued are dropped.
+	 */
+	public void shutdown() {
+		if (workers == null) {
+			return;
+		}
+		workers.shutdownNow();
+		for (BlockingQueue<PacketContext> queue : queues) {
+			dropped.add(queue.size());
+			queue.clear();
+		}
+		try {
+			if (!workers.awaitTermination(SHUTDOWN_WAIT_MS, TimeUnit.MILLISECONDS)) {
+				log.warn("Packet workers still busy after {}ms", SHUTDOWN_WAIT_MS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("packet dispatch: %d workers, %d dispatched, %d queued, %d backpressured, %d dropped",
+				queues.length, dispatched(), queued(), backpressured(), dropped());
+	}
+}
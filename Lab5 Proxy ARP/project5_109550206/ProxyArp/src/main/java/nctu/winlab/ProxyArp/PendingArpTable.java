@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ARP requests waiting for a target that has been probed but has not
+ * answered yet. The first request for a target is probed; requests for it
+ * within the hold time only join the waiters, and the target's reply
+ * answers all of them. Waiters are kept for a few hold times, in case the
+ * target is slow, then dropped.
+ */
+public class PendingArpTable {
+
+	/** Hold times an unanswered target's waiters are kept. */
+	private static final int KEEP_HOLDS = 4;
+	private static final int MAX_WAITERS = 1024;
+
+	/** A host that asked for the target. */
+	public static final class Waiter {
+		final MacAddress mac;
+		final Ip4Address ip;
+		final ConnectPoint location;
+
+		public Waiter(MacAddress mac, Ip4Address ip, ConnectPoint location) {
+			this.mac = mac;
+			this.ip = ip;
+			this.location = location;
+		}
+	}
+
+	private static final class Pending {
+		final long probedAt;
+		final List<Waiter> waiters = Lists.newArrayList();
+
+		Pending(long probedAt) {
+			this.probedAt = probedAt;
+		}
+	}
+
+	private final long holdMillis;
+	private final Cache<Ip4Address, Pending> pending;
+
+	public PendingArpTable(long holdMillis) {
+		this.holdMillis = holdMillis;
+		this.pending = CacheBuilder.newBuilder()
+				.expireAfterWrite(Math.max(holdMillis * KEEP_HOLDS, 1), TimeUnit.MILLISECONDS)
+				.build();
+	}
+
+	/**
+	 * Adds a waiter for the target.
+	 *
+	 * @return true if the caller should probe the target: it is the first
+	 *         waiter, or the last probe is older than the hold time
+	 */
+	public boolean await(Ip4Address target, Waiter waiter, long now) {
+		boolean[] probe = new boolean[1];
+		//compute runs under the key's lock, so the waiter lists need none of their own
+		pending.asMap().compute(target, (ip, p) -> {
+			Pending next = p;
+			if (p == null || now - p.probedAt >= holdMillis) {
+				probe[0] = true;
+				next = new Pending(now);
+				if (p != null) {
+					next.waiters.addAll(p.waiters);
+				}
+			}
+			for (Waiter w : next.waiters) {
+				if (w.mac.equals(waiter.mac)) {
+					return next;
+				}
+			}
+			if (next.waiters.size() < MAX_WAITERS) {
+				next.waiters.add(waiter);
+			}
+			return next;
+		});
+		return probe[0];
+	}
+
+	/** Removes and returns the waiters of a target that answered. */
+	public List<Waiter> resolved(Ip4Address target) {
+		Pending p = pending.asMap().remove(target);
+		return p == null ? ImmutableList.of() : p.waiters;
+	}
+
+	public long size() {
+		pending.cleanUp();
+		return pending.size();
+	}
+}
@@ -15,27 +15,97 @@
  */
 package nctu.winlab.ProxyArp;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
-import org.onosproject.cfg.ComponentConfigService;
+import org.onlab.packet.ARP;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.VlanId;
 import org.onosproject.cfg.ComponentConfigAdapter;
-import org.onosproject.cfg.ConfigProperty;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreService;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultHost;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.edge.EdgePortService;
+import org.onosproject.net.flow.instructions.Instruction;
+import org.onosproject.net.flow.instructions.Instructions;
+import org.onosproject.net.host.HostService;
+import org.onosproject.net.intf.Interface;
+import org.onosproject.net.intf.InterfaceService;
+import org.onosproject.net.packet.DefaultInboundPacket;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.OutboundPacket;
+import org.onosproject.net.packet.PacketContext;
+import org.onosproject.net.packet.PacketService;
+import org.onosproject.net.provider.ProviderId;
 
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 /**
- * Set of tests of the ONOS application component.
+ * Set of tests of the ONOS application component. The ONOS services are
+ * dynamic proxies that record the calls made to them and the packets
+ * emitted, and answer with empty values apart from the hosts, interfaces
+ * and edge ports a test sets up.
  */
 public class AppComponentTest {
 
+    private static final ApplicationId APP_ID = new DefaultApplicationId(1, "nctu.winlab.ProxyArp");
+    private static final DeviceId S1 = DeviceId.deviceId("of:0000000000000001");
+    private static final DeviceId S2 = DeviceId.deviceId("of:0000000000000002");
+    private static final ConnectPoint H1_PORT = new ConnectPoint(S1, PortNumber.portNumber(1));
+    private static final ConnectPoint S1_OTHER_PORT = new ConnectPoint(S1, PortNumber.portNumber(2));
+    private static final ConnectPoint H2_PORT = new ConnectPoint(S2, PortNumber.portNumber(1));
+    private static final MacAddress H1_MAC = MacAddress.valueOf("02:00:00:00:00:01");
+    private static final MacAddress H2_MAC = MacAddress.valueOf("02:00:00:00:00:02");
+    private static final Ip4Address H1_IP = Ip4Address.valueOf("10.0.0.1");
+    private static final Ip4Address H2_IP = Ip4Address.valueOf("10.0.0.2");
+
     private AppComponent component;
 
+    /** Calls made to the stubbed services, as "Service.method". */
+    private final List<String> calls = new ArrayList<>();
+    private final List<OutboundPacket> emitted = new ArrayList<>();
+    /** Hosts the stubbed host service knows. */
+    private final Set<Host> hosts = new HashSet<>();
+    /** Interfaces the stubbed interface service matches every address to. */
+    private final Set<Interface> interfaces = new HashSet<>();
+    /** Edge ports the stubbed edge port service reports. */
+    private final List<ConnectPoint> edgePoints = ImmutableList.of(H1_PORT, S1_OTHER_PORT, H2_PORT);
+    /** Packet the stubbed packet context carries. */
+    private InboundPacket inbound;
+
     @Before
     public void setUp() {
         component = new AppComponent();
         component.cfgService = new ComponentConfigAdapter();
-        component.activate();
+        component.coreService = stub(CoreService.class);
+        component.packetService = stub(PacketService.class);
+        component.eptService = stub(EdgePortService.class);
+        component.hostService = stub(HostService.class);
+        component.interfaceService = stub(InterfaceService.class);
+        component.activate(null);
     }
 
     @After
@@ -43,9 +113,188 @@ public class AppComponentTest {
         component.deactivate();
     }
 
+    private <T> T stub(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return objectMethod(proxy, method, args);
+                    }
+                    calls.add(type.getSimpleName() + "." + method.getName());
+                    return answer(method, args);
+                }));
+    }
+
+    private static Object objectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "stub";
+        }
+    }
+
+    private Object answer(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "registerApplication":
+                return APP_ID;
+            case "getHostsByIp":
+                return ImmutableSet.copyOf(hosts);
+            case "getMatchingInterfaces":
+                return ImmutableSet.copyOf(interfaces);
+            case "getEdgePoints":
+                return edgePoints;
+            case "emit":
+                emitted.add((OutboundPacket) args[0]);
+                return null;
+            case "inPacket":
+                return inbound;
+            default:
+                return empty(method.getReturnType());
+        }
+    }
+
+    private static Object empty(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type.isAssignableFrom(ImmutableSet.class)) {
+            return ImmutableSet.of();
+        } else if (type.isAssignableFrom(ImmutableList.class)) {
+            return ImmutableList.of();
+        }
+        return null;
+    }
+
+    /** Hands the component an ARP packet-in, as its worker would. */
+    private void receive(ConnectPoint from, short op, Ip4Address target, Ip4Address sender,
+                         MacAddress dst, MacAddress src) throws Exception {
+        ByteBuffer frame = ArpFrames.frame(op, target.toInt(), sender.toInt(), dst.toLong(), src.toLong());
+        Ethernet parsed = Ethernet.deserializer().deserialize(frame.array(), 0, frame.limit());
+        inbound = new DefaultInboundPacket(from, parsed, frame);
+        component.arpProcessor.ProxyArp(stub(PacketContext.class));
+    }
+
+    /** H1 broadcasting an ARP request for H2. */
+    private void h1AsksForH2() throws Exception {
+        receive(H1_PORT, ARP.OP_REQUEST, H2_IP, H1_IP, MacAddress.BROADCAST, H1_MAC);
+    }
+
+    private static Set<PortNumber> outputs(OutboundPacket packet) {
+        Set<PortNumber> ports = new HashSet<>();
+        for (Instruction instruction : packet.treatment().allInstructions()) {
+            ports.add(((Instructions.OutputInstruction) instruction).port());
+        }
+        return ports;
+    }
+
+    private static ARP arp(OutboundPacket packet) throws Exception {
+        ByteBuffer data = packet.data();
+        Ethernet frame = Ethernet.deserializer().deserialize(data.array(), data.arrayOffset() + data.position(),
+                data.remaining());
+        return (ARP) frame.getPayload();
+    }
+
+    /** Checks the packet is H2's ARP reply to H1, sent out H1's port. */
+    private static void assertReplyToH1(OutboundPacket packet) throws Exception {
+        assertEquals(S1, packet.sendThrough());
+        assertEquals(ImmutableSet.of(H1_PORT.port()), outputs(packet));
+        ARP arp = arp(packet);
+        assertEquals(ARP.OP_REPLY, arp.getOpCode());
+        assertEquals(H2_IP, Ip4Address.valueOf(arp.getSenderProtocolAddress()));
+        assertEquals(H2_MAC, MacAddress.valueOf(arp.getSenderHardwareAddress()));
+        assertEquals(H1_IP, Ip4Address.valueOf(arp.getTargetProtocolAddress()));
+    }
+
     @Test
-    public void basics() {
+    public void activateRegistersTheProcessor() {
+        assertTrue(calls.contains("CoreService.registerApplication"));
+        assertTrue(calls.contains("PacketService.addProcessor"));
+    }
+
+    @Test
+    public void hostKnownToOnosIsAnsweredWithoutFlooding() throws Exception {
+        hosts.add(new DefaultHost(ProviderId.NONE, HostId.hostId(H2_MAC), H2_MAC, VlanId.NONE,
+                new HostLocation(H2_PORT, 0), ImmutableSet.<IpAddress>of(H2_IP)));
+        h1AsksForH2();
+        assertEquals(1, emitted.size());
+        assertReplyToH1(emitted.get(0));
+    }
+
+    @Test
+    public void targetSubnetIsProbedInsteadOfFlooded() throws Exception {
+        ConnectPoint gateway = new ConnectPoint(S2, PortNumber.portNumber(7));
+        interfaces.add(new Interface("subnet", gateway, ImmutableList.of(), MacAddress.NONE, VlanId.NONE));
+        //the interface the request came in on is not probed
+        interfaces.add(new Interface("ingress", H1_PORT, ImmutableList.of(), MacAddress.NONE, VlanId.NONE));
+        h1AsksForH2();
+        assertEquals(1, emitted.size());
+        assertEquals(S2, emitted.get(0).sendThrough());
+        assertEquals(ImmutableSet.of(gateway.port()), outputs(emitted.get(0)));
+        assertEquals(ARP.OP_REQUEST, arp(emitted.get(0)).getOpCode());
+    }
+
+    @Test
+    public void activateReadsTheEdgePorts() {
+        assertTrue(calls.contains("EdgePortService.addListener"));
+        assertEquals(3, component.edgePorts.size());
+    }
+
+    @Test
+    public void unknownTargetIsFloodedOncePerDevice() throws Exception {
+        h1AsksForH2();
+        assertEquals(2, emitted.size());
+        for (OutboundPacket packet : emitted) {
+            if (packet.sendThrough().equals(S1)) {
+                //not back out where the request came in
+                assertEquals(ImmutableSet.of(S1_OTHER_PORT.port()), outputs(packet));
+            } else {
+                assertEquals(S2, packet.sendThrough());
+                assertEquals(ImmutableSet.of(H2_PORT.port()), outputs(packet));
+            }
+            assertEquals(ARP.OP_REQUEST, arp(packet).getOpCode());
+        }
+    }
+
+    @Test
+    public void traceDumpEndsWithTheResolutionCounts() throws Exception {
+        h1AsksForH2();
+        List<String> lines = component.traceDump();
+        assertEquals("ARP requests: 0 from table, 0 from hosts, 0 probed in subnet, 1 flooded, 0 held for a pending probe",
+                lines.get(lines.size() - 1));
+    }
 
+    @Test
+    public void repeatedRequestWaitsForTheProbe() throws Exception {
+        h1AsksForH2();
+        emitted.clear();
+        h1AsksForH2();
+        assertTrue(emitted.isEmpty());
     }
 
+    @Test
+    public void replyAnswersTheWaitingHost() throws Exception {
+        h1AsksForH2();
+        emitted.clear();
+        receive(H2_PORT, ARP.OP_REPLY, H1_IP, H2_IP, H1_MAC, H2_MAC);
+        assertEquals(1, emitted.size());
+        assertReplyToH1(emitted.get(0));
+    }
+
+    @Test
+    public void learnedHostIsAnsweredFromTheBindingTable() throws Exception {
+        h1AsksForH2();
+        receive(H2_PORT, ARP.OP_REPLY, H1_IP, H2_IP, H1_MAC, H2_MAC);
+        emitted.clear();
+        //the reply taught the store where H2 is; ONOS is not asked
+        calls.clear();
+        h1AsksForH2();
+        assertEquals(1, emitted.size());
+        assertReplyToH1(emitted.get(0));
+        assertFalse(calls.contains("HostService.getHostsByIp"));
+    }
 }
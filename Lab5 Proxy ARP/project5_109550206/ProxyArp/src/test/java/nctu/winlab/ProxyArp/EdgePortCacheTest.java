@@ -0,0 +1,159 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.flow.instructions.Instruction;
+import org.onosproject.net.flow.instructions.Instructions;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the per-device edge port cache.
+ */
+public class EdgePortCacheTest {
+
+    private static final DeviceId S1 = DeviceId.deviceId("of:0000000000000001");
+    private static final DeviceId S2 = DeviceId.deviceId("of:0000000000000002");
+    private static final ConnectPoint S1P1 = new ConnectPoint(S1, PortNumber.portNumber(1));
+    private static final ConnectPoint S1P2 = new ConnectPoint(S1, PortNumber.portNumber(2));
+    private static final ConnectPoint S1P3 = new ConnectPoint(S1, PortNumber.portNumber(3));
+    private static final ConnectPoint S2P1 = new ConnectPoint(S2, PortNumber.portNumber(1));
+
+    private EdgePortCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new EdgePortCache();
+    }
+
+    private static Set<PortNumber> outputs(TrafficTreatment treatment) {
+        Set<PortNumber> ports = new HashSet<>();
+        for (Instruction instruction : treatment.allInstructions()) {
+            ports.add(((Instructions.OutputInstruction) instruction).port());
+        }
+        return ports;
+    }
+
+    private static Set<PortNumber> ports(long... numbers) {
+        Set<PortNumber> ports = new HashSet<>();
+        for (long n : numbers) {
+            ports.add(PortNumber.portNumber(n));
+        }
+        return ports;
+    }
+
+    @Test
+    public void floodLeavesOutTheIngressPort() {
+        cache.rebuild(() -> ImmutableList.of(S1P1, S1P2, S1P3, S2P1));
+        assertEquals(4, cache.size());
+        assertEquals(ImmutableSet.of(S1, S2), cache.devices());
+        assertEquals(ports(1, 2, 3), outputs(cache.flood(S1, null)));
+        assertEquals(ports(1, 3), outputs(cache.flood(S1, S1P2.port())));
+        //a port that is not an edge port leaves the flood whole
+        assertEquals(ports(1, 2, 3), outputs(cache.flood(S1, PortNumber.portNumber(9))));
+    }
+
+    @Test
+    public void noFloodBackOutTheOnlyEdgePort() {
+        cache.rebuild(() -> ImmutableList.of(S2P1));
+        assertNull(cache.flood(S2, S2P1.port()));
+        assertNull(cache.flood(S1, null));
+    }
+
+    @Test
+    public void eventsUpdateTheDevice() {
+        cache.added(S1P1);
+        cache.added(S1P2);
+        cache.added(S1P2);
+        assertEquals(ports(1, 2), outputs(cache.flood(S1, null)));
+        cache.removed(S1P1);
+        assertEquals(ports(2), outputs(cache.flood(S1, null)));
+        cache.removed(S1P1);
+        cache.removed(S1P2);
+        assertFalse(cache.devices().contains(S1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void rebuildReplacesWhatWasThere() {
+        cache.added(S2P1);
+        cache.rebuild(() -> ImmutableList.of(S1P1));
+        assertEquals(ImmutableSet.of(S1), cache.devices());
+    }
+
+    @Test
+    public void portAddedWhileReadingIsKept() {
+        //the edge service's answer was put together before the port came up
+        cache.rebuild(() -> {
+            List<ConnectPoint> read = ImmutableList.of(S1P1);
+            cache.added(S1P2);
+            return read;
+        });
+        assertEquals(ports(1, 2), outputs(cache.flood(S1, null)));
+    }
+
+    @Test
+    public void portRemovedWhileReadingStaysRemoved() {
+        cache.rebuild(() -> {
+            List<ConnectPoint> read = ImmutableList.of(S1P1, S1P2, S2P1);
+            cache.removed(S1P2);
+            cache.removed(S2P1);
+            return read;
+        });
+        assertEquals(ports(1), outputs(cache.flood(S1, null)));
+        assertFalse(cache.devices().contains(S2));
+    }
+
+    @Test
+    public void lastEventWhileReadingWins() {
+        cache.rebuild(() -> {
+            cache.removed(S1P2);
+            cache.added(S1P2);
+            cache.added(S2P1);
+            cache.removed(S2P1);
+            return ImmutableList.of(S1P1, S2P1);
+        });
+        assertEquals(ports(1, 2), outputs(cache.flood(S1, null)));
+        assertFalse(cache.devices().contains(S2));
+    }
+
+    @Test
+    public void eventsAfterTheRebuildAreNotReplayedAgain() {
+        cache.rebuild(() -> {
+            cache.added(S1P2);
+            return ImmutableList.of(S1P1);
+        });
+        cache.removed(S1P2);
+        cache.rebuild(() -> ImmutableList.of(S1P1));
+        assertEquals(ports(1), outputs(cache.flood(S1, null)));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of learning, moving and aging out host bindings.
+ */
+public class HostBindingStoreTest {
+
+    private static final Ip4Address IP = Ip4Address.valueOf("10.0.0.1");
+    private static final Ip4Address OTHER_IP = Ip4Address.valueOf("10.0.0.2");
+    private static final MacAddress MAC_1 = MacAddress.valueOf(0x020000000001L);
+    private static final MacAddress MAC_2 = MacAddress.valueOf(0x020000000002L);
+    private static final ConnectPoint PORT_1 = ConnectPoint.deviceConnectPoint("of:0000000000000001/1");
+    private static final ConnectPoint PORT_2 = ConnectPoint.deviceConnectPoint("of:0000000000000002/1");
+    private static final long AGE = 1000;
+
+    private HostBindingStore store;
+
+    @Before
+    public void setUp() {
+        store = new HostBindingStore(AGE);
+    }
+
+    @Test
+    public void learnedHostIsFound() {
+        store.learn(IP, MAC_1, PORT_1, 0);
+        assertEquals(MAC_1, store.macOf(IP, 10));
+        assertEquals(PORT_1, store.locationOf(MAC_1, 10));
+        assertNull(store.macOf(OTHER_IP, 10));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void addressTakenByAnotherMac() {
+        store.learn(IP, MAC_1, PORT_1, 0);
+        store.learn(IP, MAC_2, PORT_1, 100);
+        assertEquals(MAC_2, store.macOf(IP, 110));
+        assertEquals(1, store.size());
+        assertTrue(store.toString().contains("1 reassigned"));
+    }
+
+    @Test
+    public void hostMovesToAnotherPort() {
+        store.learn(IP, MAC_1, PORT_1, 0);
+        store.learn(IP, MAC_1, PORT_2, 200);
+        assertEquals(PORT_2, store.locationOf(MAC_1, 210));
+        assertTrue(store.toString().contains("1 moved"));
+    }
+
+    @Test
+    public void unspecifiedSenderUpdatesTheLocationOnly() {
+        //an ARP probe from a host still checking its address
+        store.learn(Ip4Address.valueOf(0), MAC_1, PORT_1, 0);
+        assertEquals(0, store.size());
+        assertEquals(PORT_1, store.locationOf(MAC_1, 1));
+    }
+
+    @Test
+    public void staleBindingIsNotHandedOut() {
+        store.learn(IP, MAC_1, PORT_1, 0);
+        assertEquals(MAC_1, store.macOf(IP, AGE - 1));
+        //lookups age bindings out before a sweep gets to them
+        assertNull(store.macOf(IP, AGE));
+        assertNull(store.locationOf(MAC_1, AGE));
+        assertEquals(1, store.size());
+        store.sweep(AGE, false);
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void seenBindingStaysFresh() {
+        store.learn(IP, MAC_1, PORT_1, 0);
+        store.learn(IP, MAC_1, PORT_1, 900);
+        assertTrue(store.sweep(1500, false).isEmpty());
+        assertEquals(MAC_1, store.macOf(IP, 1500));
+        store.sweep(1900, false);
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void reprobeOnceAtThreeQuartersOfTheAge() {
+        store.learn(IP, MAC_1, PORT_1, 0);
+        assertTrue(store.sweep(749, true).isEmpty());
+        List<HostBindingStore.Binding> due = store.sweep(750, true);
+        assertEquals(1, due.size());
+        assertEquals(MAC_1, due.get(0).mac);
+        assertEquals(PORT_1, due.get(0).location);
+        assertTrue(store.sweep(800, true).isEmpty());
+        assertTrue(store.toString().contains("1 re-probed"));
+    }
+
+    @Test
+    public void answeredReprobeRefreshesTheBinding() {
+        store.learn(IP, MAC_1, PORT_1, 0);
+        assertEquals(1, store.sweep(960, true).size());
+        store.learn(IP, MAC_1, PORT_1, 980);
+        assertTrue(store.sweep(1500, true).isEmpty());
+        //probed again in its next life
+        assertEquals(1, store.sweep(1740, true).size());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void unansweredReprobeAgesOut() {
+        store.learn(IP, MAC_1, PORT_1, 0);
+        assertEquals(1, store.sweep(800, true).size());
+        assertTrue(store.sweep(1000, true).isEmpty());
+        assertEquals(0, store.size());
+        assertNull(store.locationOf(MAC_1, 1000));
+        assertTrue(store.toString().contains("1 expired"));
+    }
+
+    @Test
+    public void noReprobeWhenOff() {
+        store.learn(IP, MAC_1, PORT_1, 0);
+        assertTrue(store.sweep(900, false).isEmpty());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void zeroAgeKeepsBindingsForever() {
+        store.setAge(0);
+        store.learn(IP, MAC_1, PORT_1, 0);
+        assertTrue(store.sweep(Long.MAX_VALUE / 2, true).isEmpty());
+        assertEquals(MAC_1, store.macOf(IP, Long.MAX_VALUE / 2));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void shorterAgeAppliesToKnownBindings() {
+        store.learn(IP, MAC_1, PORT_1, 0);
+        store.setAge(100);
+        assertNull(store.macOf(IP, 100));
+        store.sweep(100, false);
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void clearForgetsEverything() {
+        store.learn(IP, MAC_1, PORT_1, 0);
+        store.clear();
+        assertEquals(0, store.size());
+        assertNull(store.locationOf(MAC_1, 1));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import org.junit.Test;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the table of ARP requests waiting on a probed target.
+ */
+public class PendingArpTableTest {
+
+    private static final Ip4Address TARGET = Ip4Address.valueOf("10.0.0.9");
+    private static final Ip4Address OTHER_TARGET = Ip4Address.valueOf("10.0.0.8");
+    private static final ConnectPoint EDGE = ConnectPoint.deviceConnectPoint("of:0000000000000001/1");
+    private static final long HOLD = 1000;
+
+    private static PendingArpTable.Waiter waiter(int i) {
+        return new PendingArpTable.Waiter(MacAddress.valueOf(0x020000000000L + i),
+                Ip4Address.valueOf(0x0a000100 + i), EDGE);
+    }
+
+    @Test
+    public void firstRequestProbesTheOthersWait() {
+        PendingArpTable table = new PendingArpTable(HOLD);
+        assertTrue(table.await(TARGET, waiter(1), 0));
+        assertFalse(table.await(TARGET, waiter(2), 10));
+        assertFalse(table.await(TARGET, waiter(3), HOLD - 1));
+        List<PendingArpTable.Waiter> waiters = table.resolved(TARGET);
+        assertEquals(3, waiters.size());
+        assertEquals(waiter(1).mac, waiters.get(0).mac);
+        assertEquals(waiter(3).ip, waiters.get(2).ip);
+    }
+
+    @Test
+    public void targetsAreProbedSeparately() {
+        PendingArpTable table = new PendingArpTable(HOLD);
+        assertTrue(table.await(TARGET, waiter(1), 0));
+        assertTrue(table.await(OTHER_TARGET, waiter(1), 0));
+        assertEquals(2, table.size());
+        assertEquals(1, table.resolved(OTHER_TARGET).size());
+        assertEquals(1, table.resolved(TARGET).size());
+    }
+
+    @Test
+    public void repeatedRequestWaitsOnce() {
+        PendingArpTable table = new PendingArpTable(HOLD);
+        assertTrue(table.await(TARGET, waiter(1), 0));
+        assertFalse(table.await(TARGET, waiter(1), 100));
+        assertFalse(table.await(TARGET, waiter(1), 200));
+        assertEquals(1, table.resolved(TARGET).size());
+    }
+
+    @Test
+    public void silentTargetIsProbedAgainAfterTheHold() {
+        PendingArpTable table = new PendingArpTable(HOLD);
+        assertTrue(table.await(TARGET, waiter(1), 0));
+        assertFalse(table.await(TARGET, waiter(2), 500));
+        //the waiters from before the new probe are still answered
+        assertTrue(table.await(TARGET, waiter(3), HOLD));
+        assertFalse(table.await(TARGET, waiter(4), HOLD + 500));
+        assertTrue(table.await(TARGET, waiter(1), 2 * HOLD));
+        assertEquals(4, table.resolved(TARGET).size());
+    }
+
+    @Test
+    public void resolvedClearsTheTarget() {
+        PendingArpTable table = new PendingArpTable(HOLD);
+        table.await(TARGET, waiter(1), 0);
+        assertEquals(1, table.resolved(TARGET).size());
+        assertTrue(table.resolved(TARGET).isEmpty());
+        assertEquals(0, table.size());
+        //the next request after an answer probes again
+        assertTrue(table.await(TARGET, waiter(2), 10));
+    }
+
+    @Test
+    public void unknownTargetHasNoWaiters() {
+        assertTrue(new PendingArpTable(HOLD).resolved(TARGET).isEmpty());
+    }
+
+    @Test
+    public void waitersAreCapped() {
+        PendingArpTable table = new PendingArpTable(HOLD);
+        for (int i = 0; i < 2000; i++) {
+            table.await(TARGET, waiter(i), 0);
+        }
+        List<PendingArpTable.Waiter> waiters = table.resolved(TARGET);
+        assertEquals(1024, waiters.size());
+        assertEquals(waiter(1023).mac, waiters.get(1023).mac);
+    }
+
+    @Test
+    public void unansweredTargetIsDropped() throws InterruptedException {
+        //kept for four hold times of wall-clock time
+        PendingArpTable table = new PendingArpTable(20);
+        table.await(TARGET, waiter(1), System.currentTimeMillis());
+        assertEquals(1, table.size());
+        Thread.sleep(200);
+        assertEquals(0, table.size());
+        assertTrue(table.resolved(TARGET).isEmpty());
+    }
+}